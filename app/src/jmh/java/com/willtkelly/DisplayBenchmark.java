@@ -0,0 +1,73 @@
+package com.willtkelly;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the framebuffer paths: drawing a sprite, clearing the screen, and
+ * converting a frame into what each renderer hands to the GPU.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DisplayBenchmark {
+
+    private Chip8 chip;
+    private final float[] rects = new float[2 * 64 * 32];
+    private final byte[] colors = new byte[64 * 32];
+    private final ByteBuffer pixels = ByteBuffer.allocateDirect(64 * 32 * 4);
+
+    @Setup
+    public void setup() {
+        this.chip = new Chip8("roms/Chip8_Picture.ch8");
+
+        // Fill the screen so the conversion has something to do
+        new Scheduler(this.chip, Scheduler.DEFAULT_CLOCK_HZ).runCycles(100_000);
+
+        // V0 = 13, V1 = 7 so the sprite straddles a byte boundary,
+        // I = the font glyph for '8'
+        this.chip.run_opcode(0x600D);
+        this.chip.run_opcode(0x6107);
+        this.chip.run_opcode(0xA078);
+    }
+
+    @Benchmark
+    public Chip8 displaySprite() {
+        // Dxyn - 5 row font glyph. Each call XORs it back off again, so the
+        // screen alternates between two states
+        this.chip.run_opcode(0xD015);
+        return this.chip;
+    }
+
+    @Benchmark
+    public Chip8 displaySpriteTall() {
+        // Dxyn - the full 15 rows
+        this.chip.run_opcode(0xD01F);
+        return this.chip;
+    }
+
+    @Benchmark
+    public Chip8 clearScreen() {
+        this.chip.run_opcode(0x00E0);
+        return this.chip;
+    }
+
+    @Benchmark
+    public int frameToRects() {
+        return ShapeFrameRenderer.frame_to_rects(this.chip.getFrameBuffer(), 10, this.rects, this.colors);
+    }
+
+    @Benchmark
+    public ByteBuffer frameToPixels() {
+        TextureFrameRenderer.frame_to_pixels(this.chip.getFrameBuffer(), this.pixels);
+        return this.pixels;
+    }
+}
@@ -0,0 +1,72 @@
+package com.willtkelly;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Raw instruction throughput. Score is instructions per microsecond. "alu"
+ * is a generated loop that never waits on anything: a straight run of seven
+ * arithmetic instructions, long enough for the JIT to compile into a block,
+ * then skips and the jump back, which stay interpreted. So its JIT row
+ * covers compiled code. Trip8_Demo.ch8 is a real program. Both run under
+ * the SCHIP profile, which has no display wait, with idle skipping off, so
+ * every cycle is an instruction executed.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class InterpreterBenchmark {
+
+    private static final int CYCLES = 10_000;
+
+    private static final byte[] ALU_LOOP = {
+        0x61, 0x03,               // 200: LD V1, 3
+        (byte) 0x80, 0x14,        // 202: ADD V0, V1
+        (byte) 0x82, 0x05,        // 204: SUB V2, V0
+        (byte) 0x83, 0x23,        // 206: XOR V3, V2
+        0x74, 0x01,               // 208: ADD V4, 1
+        (byte) 0x85, 0x31,        // 20A: OR V5, V3
+        (byte) 0x86, 0x52,        // 20C: AND V6, V5
+        0x71, 0x01,               // 20E: ADD V1, 1
+        0x43, 0x00,               // 210: SNE V3, 0
+        0x77, 0x01,               // 212: ADD V7, 1
+        0x3F, 0x01,               // 214: SE VF, 1
+        0x78, 0x01,               // 216: ADD V8, 1
+        0x12, 0x02,               // 218: JP 202
+    };
+
+    @Param({"alu", "roms/Trip8_Demo.ch8"})
+    public String rom;
+
+    @Param({"TABLE", "CACHED", "JIT", "LEGACY"})
+    public String dispatch;
+
+    private Chip8 chip;
+    private Scheduler scheduler;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        this.chip = "alu".equals(this.rom) ? new Chip8(ALU_LOOP) : new Chip8(this.rom);
+        this.chip.setQuirks(QuirkProfile.SCHIP);
+        this.chip.setIdleSkip(false);
+        this.chip.setDispatchMode(DispatchMode.parse(this.dispatch));
+        this.scheduler = new Scheduler(this.chip, Scheduler.DEFAULT_CLOCK_HZ);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CYCLES)
+    public Chip8 step() {
+        this.scheduler.runCycles(CYCLES);
+        return this.chip;
+    }
+}
@@ -5,34 +5,127 @@ package com.willtkelly;
 
 import com.badlogic.gdx.backends.lwjgl3.Lwjgl3Application;
 import com.badlogic.gdx.backends.lwjgl3.Lwjgl3ApplicationConfiguration;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 
 public class App {
 
     public static void main(String[] args) {
 
-        if (args.length == 0) {
-            System.out.println("Please include rom name... ( roms/[rom_name].ch8 )");
+        Options options = Options.parse(args, "mute", "virtual-thread", "overlay", "jmx", "profile");
+
+        if (options.getRom() == null) {
+            System.out.println("Please include rom name, hash or title... ( roms/[rom_name].ch8 [--hz 700|unlimited] [--speed 1|N|max] [--turbo max|N] [--dispatch table|cached|jit|legacy] [--quirks chip8|schip|xochip] [--renderer texture|shape] [--scale 10] [--rewind 60] [--rewind-mb 8] [--seed N] [--record file] [--profile[=csv file]] [--overlay] [--mute] [--virtual-thread] [--jmx] [--index roms.index] [--keymap X123QWEASDZC4RFV] )");
             return;
         }
 
-        String rom = args[0];
+        String rom = options.getRom();
+
+        // A rom that isn't a path may be a hash or title from the index,
+        // which also supplies its quirks, clock speed and key mapping
+        RomIndex.Entry entry = find_in_index(rom, options.get("index", RomIndex.DEFAULT_FILE));
+        if (entry != null) {
+            rom = entry.getPath();
+            System.out.println(entry.getTitle() + " (" + entry.getHash() + ")");
+        }
         System.out.println(rom);
 
         Chip8 chip = new Chip8(rom);
+        String default_quirks = entry != null && entry.getQuirks() != null ? entry.getQuirks() : "chip8";
+        try {
+            chip.setQuirks(QuirkProfile.parse(options.get("quirks", default_quirks)));
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            return;
+        }
+        chip.setDispatchMode(DispatchMode.parse(options.get("dispatch", "table")));
+        String default_hz = entry != null && entry.getClockHz() != 0
+                ? String.valueOf(entry.getClockHz())
+                : String.valueOf(Scheduler.DEFAULT_CLOCK_HZ);
+        String hz = options.get("hz", default_hz);
+        Scheduler scheduler = new Scheduler(chip, Scheduler.parseClockHz(hz));
+
+        long seed = options.getLong("seed", System.nanoTime());
+        chip.setSeed(seed);
 
-        int resolution_scale = 10;
+        int resolution_scale = options.getInt("scale", 10);
         int resolution_width = 64 * resolution_scale;
         int resolution_height = 32 * resolution_scale;
 
         Display display = new Display();
         Keyboard keyboard = new Keyboard();
-        chip.setDisplay(display);
-        chip.setKeyboard(keyboard);
+        if (options.has("keymap")) {
+            keyboard.setKeymap(options.get("keymap", Keyboard.DEFAULT_KEYMAP));
+        } else if (entry != null && entry.getKeymap() != null) {
+            try {
+                keyboard.setKeymap(entry.getKeymap());
+            } catch (IllegalArgumentException e) {
+                System.err.println("Ignoring the rom index's keymap: " + e.getMessage());
+            }
+        }
         display.setChip(chip);
+        display.setKeyboard(keyboard);
+        display.setScheduler(scheduler);
+        display.setScale(resolution_scale);
+        display.setRenderMode(RenderMode.parse(options.get("renderer", "texture")));
+
+        // Hold backspace to rewind, --rewind 0 turns recording off
+        int rewind_seconds = options.getInt("rewind", RewindBuffer.DEFAULT_SECONDS);
+        if (rewind_seconds > 0) {
+            int budget = options.getInt("rewind-mb", RewindBuffer.DEFAULT_BUDGET_BYTES >> 20) << 20;
+            display.setRewindBuffer(new RewindBuffer(rewind_seconds, budget));
+        }
+
+        display.setSoundEnabled(!options.has("mute"));
+        display.setVirtualThread(options.has("virtual-thread"));
+
+        // Hold tab to fast forward at the turbo speed
+        display.setSpeed(Scheduler.parseSpeed(options.get("speed", "1")),
+                Scheduler.parseSpeed(options.get("turbo", "max")));
+
+        // F3 toggles the overlay at any time
+        display.setOverlayVisible(options.has("overlay"));
+        if (options.has("jmx")) {
+            display.getMetrics().registerMBean();
+        }
+
+        if (options.has("profile")) {
+            Profiler profiler = new Profiler(chip.getMemorySize());
+            chip.setProfiler(profiler);
+            display.setProfiler(profiler, options.get("profile", "true"));
+        }
+
+        // Key changes and the seed go to a log that HeadlessApp --replay can play back
+        if (options.has("record")) {
+            if (scheduler.isUnlimited()) {
+                System.out.println("Warning: timers follow the wall clock when unlimited, replays will drift");
+            }
+            try {
+                display.setRecorder(new InputRecorder(Path.of(options.get("record", "")), seed, scheduler.getClockHz()));
+            } catch (IOException e) {
+                System.err.println(e.getMessage());
+                return;
+            }
+        }
 
         Lwjgl3ApplicationConfiguration config = new Lwjgl3ApplicationConfiguration();
-        config.setTitle("CHIP-8 Emulator");
+        config.setTitle(entry != null ? "CHIP-8 Emulator - " + entry.getTitle() : "CHIP-8 Emulator");
         config.setWindowedMode(resolution_width, resolution_height);
         new Lwjgl3Application(display, config);
     }
+
+    private static RomIndex.Entry find_in_index(String rom, String index_file) {
+        Path index_path = Path.of(index_file);
+        if (Files.isRegularFile(Path.of(rom)) || !Files.isRegularFile(index_path)) {
+            return null;
+        }
+
+        try {
+            return RomIndex.load(index_path).find(rom);
+        } catch (IOException e) {
+            System.err.println("Could not read rom index: " + e.getMessage());
+            return null;
+        }
+    }
 }
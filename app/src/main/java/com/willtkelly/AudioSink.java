@@ -0,0 +1,19 @@
+package com.willtkelly;
+
+/**
+ * Where the sound timer is heard. The interpreter calls tick once per 60 Hz
+ * timer tick, on whichever thread runs the CPU, so implementations must not
+ * block or allocate there.
+ */
+public interface AudioSink {
+
+    /**
+     * The sound for the next 1/60 s: on while the sound timer is running,
+     * playing the 16 byte pattern (most significant bit first) at
+     * 4000 * 2^((pitch - 64) / 48) bits per second. pattern is only read
+     * during the call.
+     */
+    void tick(boolean sound_on, byte[] pattern, int pitch);
+
+    void close();
+}
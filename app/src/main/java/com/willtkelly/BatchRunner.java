@@ -0,0 +1,237 @@
+package com.willtkelly;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs many roms at once, one Chip8 per task, and prints a hash of each
+ * final framebuffer along with how fast it ran. Each instance owns all of
+ * its state, so the tasks share nothing but the thread pool.
+ *
+ * Roms come from --roms, a comma separated list of files, directories or
+ * zip archives of .ch8 files, archive entries, or classpath resources. With
+ * none given the bundled roms run.
+ */
+public class BatchRunner {
+
+    static final String[] BUNDLED_ROMS = {
+        "roms/Breakout.ch8",
+        "roms/Chip8_Picture.ch8",
+        "roms/Trip8_Demo.ch8",
+        "roms/Tron.ch8",
+        "roms/test_opcode.ch8",
+    };
+
+    public static class Result {
+
+        private final String rom;
+        private final long cycles;
+        private final long nanos;
+        private final long screen_hash;
+        private final String error;
+
+        Result(String rom, long cycles, long nanos, long screen_hash, String error) {
+            this.rom = rom;
+            this.cycles = cycles;
+            this.nanos = nanos;
+            this.screen_hash = screen_hash;
+            this.error = error;
+        }
+
+        public String getRom() {
+            return this.rom;
+        }
+
+        public long getCycles() {
+            return this.cycles;
+        }
+
+        public long getScreenHash() {
+            return this.screen_hash;
+        }
+
+        public String getError() {
+            return this.error;
+        }
+
+        public double getCyclesPerSecond() {
+            return this.cycles / (this.nanos / 1e9);
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+
+        Options options = Options.parse(args, "virtual");
+
+        List<String> roms = new ArrayList<>();
+        if (options.getRom() != null) {
+            roms.add(options.getRom());
+        }
+        if (options.has("roms")) {
+            for (String rom : options.get("roms", "").split(",")) {
+                roms.add(rom.trim());
+            }
+        }
+        if (roms.isEmpty()) {
+            roms.addAll(List.of(BUNDLED_ROMS));
+        }
+
+        long max_cycles = options.getLong("cycles", HeadlessApp.DEFAULT_CYCLES);
+        int clock_hz = Scheduler.parseClockHz(options.get("hz", String.valueOf(Scheduler.DEFAULT_CLOCK_HZ)));
+        if (clock_hz == Scheduler.UNLIMITED) {
+            clock_hz = Scheduler.DEFAULT_CLOCK_HZ;
+        }
+        DispatchMode dispatch = DispatchMode.parse(options.get("dispatch", "table"));
+        QuirkProfile quirks = QuirkProfile.parse(options.get("quirks", "chip8"));
+        InputScript script = InputScript.parse(options.get("input", null));
+
+        // Every rom gets the same seed, so hashes repeat from run to run
+        long seed = options.getLong("seed", 0);
+
+        // Runs are CPU bound, so a thread per core unless asked otherwise
+        int threads = options.getInt("threads", Runtime.getRuntime().availableProcessors());
+        ExecutorService pool = options.has("virtual")
+                ? Executors.newVirtualThreadPerTaskExecutor()
+                : Executors.newFixedThreadPool(threads);
+
+        List<Job> jobs = expand(roms);
+
+        long start = System.nanoTime();
+        List<Future<Result>> futures = new ArrayList<>();
+        for (Job job : jobs) {
+            final int hz = clock_hz;
+            futures.add(pool.submit(() -> run(job, dispatch, quirks, hz, seed, max_cycles, script)));
+        }
+
+        long total_cycles = 0;
+        int failed = 0;
+        for (Future<Result> future : futures) {
+            Result result;
+            try {
+                result = future.get();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+
+            if (result.getError() != null) {
+                System.out.printf("%-32s ERROR %s%n", result.getRom(), result.getError());
+                failed++;
+                continue;
+            }
+
+            System.out.printf("%-32s %016x %12d cycles %14.0f cycles/sec%n",
+                    result.getRom(), result.getScreenHash(), result.getCycles(), result.getCyclesPerSecond());
+            total_cycles += result.getCycles();
+        }
+        long elapsed = System.nanoTime() - start;
+        pool.shutdown();
+
+        System.out.printf("Roms: %d, Failed: %d, Time: %.3f ms, Total cycles/sec: %.0f%n",
+                jobs.size(), failed, elapsed / 1e6, total_cycles / (elapsed / 1e9));
+
+        if (failed > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Runs one rom to completion on the calling thread.
+     */
+    public static Result run(String name, byte[] rom, DispatchMode dispatch, QuirkProfile quirks,
+                             int clock_hz, long seed, long max_cycles, InputScript script) {
+        Chip8 chip = new Chip8(rom);
+        chip.setQuirks(quirks);
+        chip.setDispatchMode(dispatch);
+        chip.setSeed(seed);
+        HeadlessInput input = new HeadlessInput();
+        chip.setInput(input);
+        Scheduler scheduler = new Scheduler(chip, clock_hz);
+
+        long start = System.nanoTime();
+        long cycles = HeadlessApp.run(chip, scheduler, input, script, max_cycles);
+        long elapsed = System.nanoTime() - start;
+        return new Result(name, cycles, elapsed, hash(chip.getFrameBuffer()), null);
+    }
+
+    /**
+     * FNV-1a over the rows in use, so runs can be compared by a single
+     * number. The second plane only counts once something is drawn to it,
+     * so plain CHIP-8 screens hash the same as they did with one plane.
+     */
+    public static long hash(FrameBuffer frame) {
+        int words = frame.getHeight() * frame.getWordsPerRow();
+        long hash = hash(0xcbf29ce484222325L, frame.getPlane(0), words);
+        if (frame.isPlaneUsed(1)) {
+            hash = hash(hash, frame.getPlane(1), words);
+        }
+        return hash;
+    }
+
+    private static long hash(long hash, long[] rows, int count) {
+        for (int i = 0; i < count; i++) {
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                hash ^= (rows[i] >>> shift) & 0xFF;
+                hash *= 0x100000001b3L;
+            }
+        }
+        return hash;
+    }
+
+    // Directories and archives become one job per rom inside them. A rom
+    // that fails to load still gets a job, so it's reported with the rest
+    private static List<Job> expand(List<String> roms) {
+        List<Job> jobs = new ArrayList<>();
+
+        for (String path : roms) {
+            List<String> names;
+            try {
+                names = RomLoader.list(path);
+            } catch (IOException e) {
+                jobs.add(new Job(path, null, e.getMessage()));
+                continue;
+            }
+
+            for (String name : names) {
+                try {
+                    jobs.add(new Job(name, RomLoader.load(name), null));
+                } catch (IOException e) {
+                    jobs.add(new Job(name, null, e.getMessage()));
+                }
+            }
+        }
+
+        return jobs;
+    }
+
+    private static class Job {
+
+        final String name;
+        final Rom rom;
+        final String error; // Why the rom couldn't be loaded, or null
+
+        Job(String name, Rom rom, String error) {
+            this.name = name;
+            this.rom = rom;
+            this.error = error;
+        }
+    }
+
+    private static Result run(Job job, DispatchMode dispatch, QuirkProfile quirks, int clock_hz,
+                              long seed, long max_cycles, InputScript script) {
+        if (job.error != null) {
+            return new Result(job.name, 0, 0, 0, job.error);
+        }
+
+        // A rom that crashes the interpreter only fails its own row
+        try {
+            return run(job.name, job.rom.getBytes(), dispatch, quirks, clock_hz, seed, max_cycles, script);
+        } catch (RuntimeException e) {
+            return new Result(job.name, 0, 0, 0, e.toString());
+        }
+    }
+}
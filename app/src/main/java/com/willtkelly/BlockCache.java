@@ -0,0 +1,109 @@
+package com.willtkelly;
+
+/**
+ * The JIT tier: counts how often each address starts a run of instructions
+ * and, once one gets hot, compiles the straight-line block starting there
+ * with BlockCompiler. Blocks are dropped again when the program writes over
+ * them, falling back to the interpreter until they get hot again.
+ */
+final class BlockCache {
+
+    static final int HOT_THRESHOLD = 64;
+
+    private final CompiledBlock[] blocks;
+    private final byte[] lengths;
+    private final short[] hotness;
+
+    private final byte[] decode_table;
+    private final BlockCompiler compiler;
+    private final int[] opcodes = new int[BlockCompiler.MAX_BLOCK];
+
+    BlockCache(int capacity, int font_start, byte[] decode_table) {
+        this.blocks = new CompiledBlock[capacity];
+        this.lengths = new byte[capacity];
+        this.hotness = new short[capacity];
+        this.decode_table = decode_table;
+        this.compiler = new BlockCompiler(font_start, decode_table);
+    }
+
+    CompiledBlock get(int address) {
+        return this.blocks[address];
+    }
+
+    /**
+     * Number of instructions in the block at address.
+     */
+    int length(int address) {
+        return this.lengths[address];
+    }
+
+    /**
+     * Counts one execution starting at address, compiling the block there
+     * when it reaches the threshold.
+     */
+    void profile(int address, byte[] memory) {
+        if (this.hotness[address] < HOT_THRESHOLD && ++this.hotness[address] == HOT_THRESHOLD) {
+            compile(address, memory);
+        }
+    }
+
+    private void compile(int address, byte[] memory) {
+        int count = 0;
+
+        // Stop short of the end of memory so the interpreter still sees the
+        // program counter run off the end and halts
+        for (int a = address; count < BlockCompiler.MAX_BLOCK && a + 2 < this.blocks.length; a += 2) {
+            int opcode = ((memory[a] & 0xFF) << 8) | (memory[a + 1] & 0xFF);
+            if (!BlockCompiler.isCompilable(this.decode_table[opcode])) {
+                break;
+            }
+            this.opcodes[count++] = opcode;
+        }
+
+        // Too short to be worth a class, leave it to the interpreter
+        if (count < BlockCompiler.MIN_BLOCK) {
+            return;
+        }
+
+        this.blocks[address] = this.compiler.compile(this.opcodes, count);
+        this.lengths[address] = (byte) count;
+
+        // The rest of the block got just as hot on the way through, but is
+        // covered now, so don't compile a block at each of its addresses too
+        for (int i = 1; i < count; i++) {
+            this.hotness[address + 2 * i] = HOT_THRESHOLD;
+        }
+    }
+
+    /**
+     * Drops every block overlapping memory[from..to] and restarts profiling
+     * around it, so the new code gets compiled if it turns out hot.
+     */
+    void invalidate(int from, int to) {
+        int start = Math.max(0, from - 2 * BlockCompiler.MAX_BLOCK + 1);
+        int end = Math.min(to, this.blocks.length - 1);
+
+        for (int address = start; address <= end; address++) {
+            if (this.blocks[address] != null && address + 2 * this.lengths[address] - 1 >= from) {
+                drop(address);
+            }
+        }
+
+        // Nothing left covers the written range, so it all starts cold.
+        // Interiors of surviving blocks before it keep their marks
+        for (int address = Math.max(0, from); address <= end; address++) {
+            this.hotness[address] = 0;
+        }
+    }
+
+    // Removes the block at address and lets every instruction in it be
+    // profiled again, including interiors past the written range
+    private void drop(int address) {
+        int length = this.lengths[address];
+        this.blocks[address] = null;
+        this.lengths[address] = 0;
+        for (int i = 0; i < length; i++) {
+            this.hotness[address + 2 * i] = 0;
+        }
+    }
+}
@@ -0,0 +1,456 @@
+package com.willtkelly;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * Compiles hot straight-line blocks of CHIP-8 code into hidden JVM classes
+ * implementing CompiledBlock, which the JIT then inlines like any other code.
+ *
+ * Only instructions that neither branch nor touch anything but the V
+ * registers, I and reads from memory are compiled, so the generated code
+ * has no jumps and needs no stack map frames. A block stops at the first
+ * other instruction, which the interpreter runs as usual.
+ */
+final class BlockCompiler {
+
+    static final int MIN_BLOCK = 4;
+    static final int MAX_BLOCK = 32;
+
+    // Local variable slots in the generated run(byte[] v, byte[] memory, int i)
+    private static final int V = 1;
+    private static final int MEMORY = 2;
+    private static final int I = 3;
+    private static final int TMP = 4;
+    private static final int REGISTER = 5; // V0 to VF in 5 to 20, as 0-255
+
+    // Opcodes
+    private static final int ICONST_0 = 0x03;
+    private static final int BIPUSH = 0x10;
+    private static final int SIPUSH = 0x11;
+    private static final int ILOAD = 0x15;
+    private static final int ALOAD = 0x19;
+    private static final int BALOAD = 0x33;
+    private static final int ISTORE = 0x36;
+    private static final int BASTORE = 0x54;
+    private static final int IADD = 0x60;
+    private static final int ISUB = 0x64;
+    private static final int IMUL = 0x68;
+    private static final int INEG = 0x74;
+    private static final int ISHL = 0x78;
+    private static final int ISHR = 0x7A;
+    private static final int IUSHR = 0x7C;
+    private static final int IAND = 0x7E;
+    private static final int IOR = 0x80;
+    private static final int IXOR = 0x82;
+    private static final int IRETURN = 0xAC;
+    private static final int RETURN = 0xB1;
+    private static final int INVOKESPECIAL = 0xB7;
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    private final int font_start;
+    private final byte[] decode_table; // The quirk profile's, see QuirkProfile
+    private final ByteArrayOutputStream code = new ByteArrayOutputStream();
+
+    BlockCompiler(int font_start, byte[] decode_table) {
+        this.font_start = font_start;
+        this.decode_table = decode_table;
+    }
+
+    static boolean isCompilable(int instruction) {
+        switch (instruction) {
+            case Opcodes.LD_BYTE, Opcodes.ADD_BYTE, Opcodes.LD_REG, Opcodes.OR,
+                 Opcodes.AND, Opcodes.XOR, Opcodes.ADD_REG, Opcodes.SUB,
+                 Opcodes.SHR, Opcodes.SUBN, Opcodes.SHL, Opcodes.LD_I,
+                 Opcodes.ADD_I, Opcodes.LD_F, Opcodes.LD_VX_MEM,
+                 Opcodes.OR_VF_RESET, Opcodes.AND_VF_RESET, Opcodes.XOR_VF_RESET,
+                 Opcodes.SHR_VY, Opcodes.SHL_VY, Opcodes.LD_VX_MEM_INC:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Compiles the given opcodes, all of which must be compilable, into a
+     * new block.
+     */
+    CompiledBlock compile(int[] opcodes, int count) {
+        this.code.reset();
+
+        // Work out which registers the block touches and which it changes
+        int touched = 0;
+        int written = 0;
+        for (int i = 0; i < count; i++) {
+            touched |= touches(opcodes[i]);
+            written |= writes(opcodes[i]);
+        }
+
+        // Load the registers into locals on the way in...
+        for (int r = 0; r < 16; r++) {
+            if ((touched & (1 << r)) != 0) {
+                op(ALOAD, V);
+                push(r);
+                op(BALOAD);
+                mask();
+                op(ISTORE, REGISTER + r);
+            }
+        }
+
+        for (int i = 0; i < count; i++) {
+            emit(opcodes[i]);
+        }
+
+        // ...and write back the ones that changed on the way out
+        for (int r = 0; r < 16; r++) {
+            if ((written & (1 << r)) != 0) {
+                op(ALOAD, V);
+                push(r);
+                op(ILOAD, REGISTER + r);
+                op(BASTORE);
+            }
+        }
+        op(ILOAD, I);
+        op(IRETURN);
+
+        try {
+            byte[] class_file = class_file(this.code.toByteArray());
+            MethodHandles.Lookup block = LOOKUP.defineHiddenClass(class_file, true);
+            return (CompiledBlock) block.findConstructor(block.lookupClass(),
+                    MethodType.methodType(void.class)).invoke();
+        } catch (Throwable e) {
+            throw new IllegalStateException("Could not compile block", e);
+        }
+    }
+
+    // Registers read or written by an opcode, as a 16-bit mask
+    private int touches(int opcode) {
+        int x = (opcode >> 8) & 0xF;
+        int y = (opcode >> 4) & 0xF;
+
+        switch (this.decode_table[opcode]) {
+            case Opcodes.LD_REG, Opcodes.OR, Opcodes.AND, Opcodes.XOR:
+                return (1 << x) | (1 << y);
+            case Opcodes.ADD_REG, Opcodes.SUB, Opcodes.SUBN,
+                 Opcodes.OR_VF_RESET, Opcodes.AND_VF_RESET, Opcodes.XOR_VF_RESET,
+                 Opcodes.SHR_VY, Opcodes.SHL_VY:
+                return (1 << x) | (1 << y) | (1 << 0xF);
+            case Opcodes.SHR, Opcodes.SHL:
+                return (1 << x) | (1 << 0xF);
+            case Opcodes.LD_I:
+                return 0;
+            case Opcodes.LD_VX_MEM, Opcodes.LD_VX_MEM_INC:
+                return (2 << x) - 1;
+            default:
+                return 1 << x;
+        }
+    }
+
+    // Registers written by an opcode, as a 16-bit mask
+    private int writes(int opcode) {
+        int x = (opcode >> 8) & 0xF;
+
+        switch (this.decode_table[opcode]) {
+            case Opcodes.ADD_REG, Opcodes.SUB, Opcodes.SUBN, Opcodes.SHR, Opcodes.SHL,
+                 Opcodes.OR_VF_RESET, Opcodes.AND_VF_RESET, Opcodes.XOR_VF_RESET,
+                 Opcodes.SHR_VY, Opcodes.SHL_VY:
+                return (1 << x) | (1 << 0xF);
+            case Opcodes.LD_I, Opcodes.ADD_I, Opcodes.LD_F:
+                return 0;
+            case Opcodes.LD_VX_MEM, Opcodes.LD_VX_MEM_INC:
+                return (2 << x) - 1;
+            default:
+                return 1 << x;
+        }
+    }
+
+    /**
+     * Emits one instruction. Registers live in locals as 0-255 for the whole
+     * block, so every result that can leave that range is masked.
+     */
+    private void emit(int opcode) {
+        int x = (opcode >> 8) & 0xF;
+        int y = (opcode >> 4) & 0xF;
+        int kk = opcode & 0xFF;
+        int nnn = opcode & 0xFFF;
+
+        switch (this.decode_table[opcode]) {
+            case Opcodes.LD_BYTE -> { // Vx = kk
+                push(kk);
+                store(x);
+            }
+            case Opcodes.ADD_BYTE -> { // Vx = Vx + kk
+                load(x);
+                push(kk);
+                op(IADD);
+                mask();
+                store(x);
+            }
+            case Opcodes.LD_REG -> { // Vx = Vy
+                load(y);
+                store(x);
+            }
+            case Opcodes.OR -> logic(x, y, IOR);
+            case Opcodes.AND -> logic(x, y, IAND);
+            case Opcodes.XOR -> logic(x, y, IXOR);
+            case Opcodes.OR_VF_RESET -> { // Vx = Vx | Vy, VF = 0
+                logic(x, y, IOR);
+                clear_vf();
+            }
+            case Opcodes.AND_VF_RESET -> { // Vx = Vx & Vy, VF = 0
+                logic(x, y, IAND);
+                clear_vf();
+            }
+            case Opcodes.XOR_VF_RESET -> { // Vx = Vx ^ Vy, VF = 0
+                logic(x, y, IXOR);
+                clear_vf();
+            }
+            case Opcodes.ADD_REG -> { // Vx = Vx + Vy, VF = carry
+                load(x);
+                load(y);
+                op(IADD);
+                op(ISTORE, TMP);
+
+                op(ILOAD, TMP);
+                mask();
+                store(x);
+
+                op(ILOAD, TMP);
+                push(8);
+                op(ISHR);
+                store(0xF);
+            }
+            case Opcodes.SUB -> subtract(x, x, y); // Vx = Vx - Vy
+            case Opcodes.SUBN -> subtract(x, y, x); // Vx = Vy - Vx
+            case Opcodes.SHR -> shift_right(x, x); // Vx = Vx >> 1, VF = lsb
+            case Opcodes.SHR_VY -> shift_right(x, y); // Vx = Vy >> 1, VF = lsb
+            case Opcodes.SHL -> shift_left(x, x); // Vx = Vx << 1, VF = msb
+            case Opcodes.SHL_VY -> shift_left(x, y); // Vx = Vy << 1, VF = msb
+            case Opcodes.LD_I -> { // I = nnn
+                push(nnn);
+                op(ISTORE, I);
+            }
+            case Opcodes.ADD_I -> { // I = I + Vx
+                op(ILOAD, I);
+                load(x);
+                op(IADD);
+                op(ISTORE, I);
+            }
+            case Opcodes.LD_F -> { // I = font + Vx * 5
+                load(x);
+                push(5);
+                op(IMUL);
+                push(this.font_start);
+                op(IADD);
+                op(ISTORE, I);
+            }
+            case Opcodes.LD_VX_MEM -> load_registers(x); // V0..Vx = memory[I..I + x]
+            case Opcodes.LD_VX_MEM_INC -> { // V0..Vx = memory[I..I + x], I = I + x + 1
+                load_registers(x);
+                op(ILOAD, I);
+                push(x + 1);
+                op(IADD);
+                op(ISTORE, I);
+            }
+            default -> throw new IllegalArgumentException(
+                    "Not compilable: " + Integer.toHexString(opcode));
+        }
+    }
+
+    private void load_registers(int x) {
+        for (int r = 0; r <= x; r++) {
+            op(ALOAD, MEMORY);
+            op(ILOAD, I);
+            push(r);
+            op(IADD);
+            op(BALOAD);
+            mask();
+            store(r);
+        }
+    }
+
+    // The flag is stored after the result throughout, so it wins when x is F
+    private void shift_right(int x, int source) {
+        load(source);
+        op(ISTORE, TMP);
+
+        op(ILOAD, TMP);
+        push(1);
+        op(ISHR);
+        store(x);
+
+        op(ILOAD, TMP);
+        push(1);
+        op(IAND);
+        store(0xF);
+    }
+
+    private void shift_left(int x, int source) {
+        load(source);
+        op(ISTORE, TMP);
+
+        op(ILOAD, TMP);
+        push(1);
+        op(ISHL);
+        mask();
+        store(x);
+
+        op(ILOAD, TMP);
+        push(7);
+        op(ISHR);
+        store(0xF);
+    }
+
+    private void clear_vf() {
+        push(0);
+        store(0xF);
+    }
+
+    private void logic(int x, int y, int operation) {
+        load(x);
+        load(y);
+        op(operation);
+        store(x);
+    }
+
+    /**
+     * Vx = Va - Vb, with VF = Va >= Vb (NOT borrow). The difference is kept
+     * in TMP, so the flag is right even when x is F.
+     */
+    private void subtract(int x, int a, int b) {
+        load(a);
+        load(b);
+        op(ISUB);
+        op(ISTORE, TMP);
+
+        op(ILOAD, TMP);
+        mask();
+        store(x);
+
+        // VF = a >= b, which is the sign bit of a - b flipped
+        op(ILOAD, TMP);
+        push(31);
+        op(IUSHR);
+        push(1);
+        op(IXOR);
+        store(0xF);
+    }
+
+    private void load(int x) {
+        op(ILOAD, REGISTER + x);
+    }
+
+    private void store(int x) {
+        op(ISTORE, REGISTER + x);
+    }
+
+    private void mask() {
+        push(0xFF);
+        op(IAND);
+    }
+
+    private void push(int value) {
+        if (value == 0) {
+            op(ICONST_0);
+        } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            op(BIPUSH, value);
+        } else {
+            op(SIPUSH);
+            this.code.write(value >> 8);
+            this.code.write(value);
+        }
+    }
+
+    private void op(int opcode) {
+        this.code.write(opcode);
+    }
+
+    private void op(int opcode, int operand) {
+        this.code.write(opcode);
+        this.code.write(operand);
+    }
+
+    /**
+     * Wraps the body of run() in a minimal class file:
+     * final class Block implements CompiledBlock with a default constructor.
+     */
+    private static byte[] class_file(byte[] run) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(0);  // minor
+        out.writeShort(61); // major, Java 17
+
+        // Constant pool
+        out.writeShort(14);
+        utf8(out, "com/willtkelly/Block");       // #1
+        class_ref(out, 1);                        // #2
+        utf8(out, "java/lang/Object");           // #3
+        class_ref(out, 3);                        // #4
+        utf8(out, "com/willtkelly/CompiledBlock"); // #5
+        class_ref(out, 5);                        // #6
+        utf8(out, "<init>");                     // #7
+        utf8(out, "()V");                        // #8
+        out.writeByte(12);                        // #9 NameAndType <init>()V
+        out.writeShort(7);
+        out.writeShort(8);
+        out.writeByte(10);                        // #10 Methodref Object.<init>
+        out.writeShort(4);
+        out.writeShort(9);
+        utf8(out, "run");                        // #11
+        utf8(out, "([B[BI)I");                   // #12
+        utf8(out, "Code");                       // #13
+
+        out.writeShort(0x0001 | 0x0010 | 0x0020); // public final super
+        out.writeShort(2);  // this
+        out.writeShort(4);  // super
+        out.writeShort(1);  // interfaces
+        out.writeShort(6);
+        out.writeShort(0);  // fields
+
+        out.writeShort(2);  // methods
+
+        // public <init>() { super(); }
+        byte[] init = {0x2A, (byte) INVOKESPECIAL, 0x00, 0x0A, (byte) RETURN};
+        method(out, 7, 8, 1, 1, init);
+
+        // public int run(byte[] v, byte[] memory, int i)
+        method(out, 11, 12, 8, REGISTER + 16, run);
+
+        out.writeShort(0);  // attributes
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static void method(DataOutputStream out, int name, int descriptor,
+                               int max_stack, int max_locals, byte[] code) throws IOException {
+        out.writeShort(0x0001); // public
+        out.writeShort(name);
+        out.writeShort(descriptor);
+        out.writeShort(1);      // attributes
+
+        out.writeShort(13);     // Code
+        out.writeInt(12 + code.length);
+        out.writeShort(max_stack);
+        out.writeShort(max_locals);
+        out.writeInt(code.length);
+        out.write(code);
+        out.writeShort(0);      // exception table
+        out.writeShort(0);      // attributes
+    }
+
+    private static void utf8(DataOutputStream out, String value) throws IOException {
+        out.writeByte(1);
+        out.writeUTF(value);
+    }
+
+    private static void class_ref(DataOutputStream out, int name) throws IOException {
+        out.writeByte(7);
+        out.writeShort(name);
+    }
+}
@@ -1,23 +1,58 @@
 
 package com.willtkelly;
 
-import com.badlogic.gdx.Gdx;
-
 import java.io.IOException;
-import java.util.Random;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 public class Chip8 {
 
-    private Random random = new Random(System.nanoTime());
+    // Save state layout, see saveState
+    private static final int STATE_MAGIC = 0x43385353; // "C8SS"
+    private static final short STATE_VERSION = 4;
+
+    // Memory, 4KB addressable unless the profile is XO-CHIP
+    public static final int MAX_MEMORY = 0x10000; // 64KB
+
+    /** The largest save state, that of an XO-CHIP machine. */
+    public static final int MAX_STATE_SIZE = state_size(MAX_MEMORY);
+
+    // xorshift64* state for Cxkk, seeded from the clock unless set
+    private long random_state = seed_to_state(System.nanoTime());
 
     private boolean halt_cpu = false;
 
-    // Memory
-    private final int MEMORY_CAPACITY = 4096; // 4KB
+    private DispatchMode dispatch_mode = DispatchMode.TABLE;
+
+    // Instruction ids for every opcode, specialized for the quirk profile
+    private QuirkProfile quirks = QuirkProfile.CHIP8;
+    private byte[] decode_table = quirks.decodeTable();
+
+    // Set by Dxyn under the display wait quirk, cleared by the next tick
+    private boolean waitingForTick = false;
+
+    // Whether run skips idle and timer polling cycles, see run
+    private boolean idle_skip = true;
+
+    // Predecoded instruction cache for DispatchMode.CACHED, one entry per
+    // address: (instruction id + 1) << 16 | opcode, or 0 if not decoded yet.
+    // Only allocated in that mode and JIT.
+    private int[] decoded;
+
+    // Compiled blocks for DispatchMode.JIT
+    private BlockCache jit;
+
+    private Profiler profiler; // Null unless profiling
+
+    // Memory, only grown past 4KB for XO-CHIP or a rom that needs it, so a
+    // plain machine stays small enough to host thousands of sessions in one
+    // server
+    private int MEMORY_CAPACITY = quirks.memory_size;
     private byte[] memory = new byte[MEMORY_CAPACITY];
     private int START_OF_PROGRAM = 0x200;
     private int PROGRAM_SIZE;
     private int FONT_START = 0x50;
+    private int BIG_FONT_START = 0xA0; // SUPER-CHIP 8x10 digits
     
     // Registers
     private final int REGISTERS = 16;
@@ -28,19 +63,33 @@ public class Chip8 {
     private int programCounter = START_OF_PROGRAM;
 
     // Stack Pointer
-    private final int MAX_SUBROUTINES = 16;
+    private static final int MAX_SUBROUTINES = 16;
     private SubroutineStack stack = new SubroutineStack(MAX_SUBROUTINES);
 
-    // Screen
-    private final int bytes = 8;
-    private final int rows = 32;
-    private byte[][] screen = new byte[rows][bytes];
-    Display display_window;
+    // Screen, see FrameBuffer. Drawing, clearing and scrolling only touch
+    // the planes selected by Fn01
+    private final FrameBuffer frame = new FrameBuffer();
+    private int plane_mask = 1;
+    private byte[][] screen_view; // Byte per 8 pixels copy for getScreen()
+
+    // SUPER-CHIP RPL user flags for Fx75 and Fx85
+    private final byte[] rpl_flags = new byte[16];
+
+    // Sound, a 128 bit pattern played at a rate set by the pitch while the
+    // sound timer runs. Only XO-CHIP can change either, the default is a
+    // 250 Hz square wave
+    private final byte[] audio_pattern = {
+        (byte) 0xFF, 0, (byte) 0xFF, 0, (byte) 0xFF, 0, (byte) 0xFF, 0,
+        (byte) 0xFF, 0, (byte) 0xFF, 0, (byte) 0xFF, 0, (byte) 0xFF, 0,
+    };
+    private int pitch = 64;
+    private AudioSink audio = new NullAudioSink();
 
     // Keyboard
-    private Keyboard keyboard;
+    private InputSource keyboard = new HeadlessInput();
     private boolean waitingForKey = false;
     private int waitingRegister = 0;
+    private int released_keys = 0; // Taken from the keyboard by isFinished
 
     // Timers
     private int delay_timer = 0;
@@ -48,38 +97,179 @@ public class Chip8 {
     
     public Chip8(String rom) {
         this.load_fonts_to_memory();
-        this.PROGRAM_SIZE = rom.length();
         boolean rom_loaded = this.load_rom_to_memory(rom);
         if (!rom_loaded) { return; }
     }
 
-    public void setDisplay(Display display) {
-        this.display_window = display;
+    /**
+     * Builds a machine from rom bytes already in hand. Every instance owns
+     * all of its state, so any number can run side by side on different
+     * threads.
+     */
+    public Chip8(byte[] rom) {
+        // Up to XO-CHIP's size, setQuirks checks it against the profile's
+        check_rom_size(rom.length, MAX_MEMORY);
+
+        this.load_fonts_to_memory();
+        this.copy_rom_to_memory(rom);
+    }
+
+    /**
+     * The live display, all planes and both resolutions. Changes as the CPU
+     * runs.
+     */
+    public FrameBuffer getFrameBuffer() {
+        return this.frame;
+    }
+
+    /**
+     * The live words of plane 0, one word per row with bit 63 as the
+     * leftmost pixel in low resolution, two per row in high.
+     */
+    public long[] getScreenRows() {
+        return this.frame.getPlane(0);
     }
 
+    /**
+     * A copy of plane 0 as width / 8 bytes per row, most significant bit
+     * leftmost. The returned array is reused by the next call at the same
+     * resolution.
+     */
     public byte[][] getScreen() {
-        return this.screen;
+        int rows = this.frame.getHeight();
+        int bytes = this.frame.getWidth() / 8;
+        if (this.screen_view == null || this.screen_view.length != rows) {
+            this.screen_view = new byte[rows][bytes];
+        }
+
+        long[] words = this.frame.getPlane(0);
+        for (int row = 0; row < rows; row++) {
+            for (int b = 0; b < bytes; b++) {
+                long bits = words[row * this.frame.getWordsPerRow() + (b >> 3)];
+                this.screen_view[row][b] = (byte) (bits >>> (56 - 8 * (b & 7)));
+            }
+        }
+        return this.screen_view;
+    }
+
+    public long getFrameVersion() {
+        return this.frame.getVersion();
+    }
+
+    /**
+     * Returns a mask of the rows changed since the last call, bit n being
+     * row n, and clears it.
+     */
+    public long takeDirtyRows() {
+        return this.frame.takeDirtyRows();
     }
 
 
-    public void setKeyboard(Keyboard keyboard) {
+    public void setInput(InputSource keyboard) {
         this.keyboard = keyboard;
     }
 
+    public void setAudio(AudioSink audio) {
+        this.audio = audio;
+    }
+
+    /**
+     * Seeds the generator behind Cxkk, so runs with the same seed and input
+     * are identical.
+     */
+    public void setSeed(long seed) {
+        this.random_state = seed_to_state(seed);
+    }
+
+    public void setDispatchMode(DispatchMode dispatch_mode) {
+        this.dispatch_mode = dispatch_mode;
+
+        boolean cached = dispatch_mode == DispatchMode.CACHED || dispatch_mode == DispatchMode.JIT;
+        this.decoded = cached ? new int[MEMORY_CAPACITY] : null;
+        this.jit = dispatch_mode == DispatchMode.JIT
+                ? new BlockCache(MEMORY_CAPACITY, FONT_START, this.decode_table)
+                : null;
+    }
+
+    /**
+     * Switches quirk profile, which also sets how much memory is addressable.
+     * Throws away anything decoded or compiled under the old one. Throws
+     * IllegalArgumentException if the loaded rom doesn't fit the profile's
+     * memory.
+     */
+    public void setQuirks(QuirkProfile quirks) {
+        check_rom_size(this.PROGRAM_SIZE, quirks.memory_size);
+        this.quirks = quirks;
+        this.decode_table = quirks.decodeTable();
+        this.MEMORY_CAPACITY = quirks.memory_size;
+        if (this.memory.length < MEMORY_CAPACITY) {
+            this.memory = Arrays.copyOf(this.memory, MEMORY_CAPACITY);
+        }
+        setDispatchMode(this.dispatch_mode);
+    }
+
+    public QuirkProfile getQuirks() {
+        return this.quirks;
+    }
+
+    /**
+     * Starts counting executed instructions into profiler, or stops with
+     * null. JIT blocks are skipped while profiling.
+     */
+    public void setProfiler(Profiler profiler) {
+        this.profiler = profiler;
+    }
+
+    /**
+     * With idle_skip off run executes every cycle, idle or not. For
+     * benchmarks, which would otherwise time the skip.
+     */
+    void setIdleSkip(boolean idle_skip) {
+        this.idle_skip = idle_skip;
+    }
+
+    public DispatchMode getDispatchMode() {
+        return this.dispatch_mode;
+    }
+
+    public int getMemorySize() {
+        return MEMORY_CAPACITY;
+    }
+
+    public int getProgramCounter() {
+        return this.programCounter;
+    }
+
+    public boolean isWaitingForKey() {
+        return this.waitingForKey;
+    }
+
+    /**
+     * True while the program can't get anywhere until the timers next tick:
+     * it drew under the display wait quirk, or is polling the delay timer.
+     */
+    public boolean isWaitingForTick() {
+        return this.waitingForTick || timer_poll_loop() >= 0;
+    }
+
     public void step() {
-        keyboard.update();
-        if (waitingForKey) {
-            int key = keyboard.getPressedKey();
-            if (key != -1) {
-                V_registers[waitingRegister] = (byte) key;
-                waitingForKey = false;
-                programCounter += 2;
-            }
+        if (waitingForTick) {
             return;
         }
 
-        if (keyboard.isEscapePressed()) {
-            Gdx.app.exit();
+        if (waitingForKey) {
+            if (this.profiler != null) {
+                // Time spent waiting shows up against the Fx0A
+                this.profiler.count(Opcodes.LD_VX_K, programCounter - 2);
+            }
+
+            // The key counts once it's let go. PC is already past the Fx0A
+            int released = this.released_keys | keyboard.takeReleasedKeys();
+            this.released_keys = 0;
+            if (released != 0) {
+                V_registers[waitingRegister] = (byte) Integer.numberOfTrailingZeros(released);
+                waitingForKey = false;
+            }
             return;
         }
 
@@ -88,24 +278,335 @@ public class Chip8 {
         }
 
         int opcode = fetch_instruction();
+        if (this.profiler != null) {
+            this.profiler.count(this.decode_table[opcode], programCounter);
+        }
         programCounter += 2;
 
-        if (programCounter >= (4096)) {
+        if (programCounter >= MEMORY_CAPACITY) {
             System.out.println("End of Program Reached... Halting");
             this.halt_cpu = true;
         }
 
-        decode_execute(opcode);
+        run_opcode(opcode);
+    }
+
+    /**
+     * Runs one opcode through the current dispatch path without fetching it
+     * from memory. Package-private so the benchmarks can time single opcodes.
+     */
+    void run_opcode(int opcode) {
+        if (this.dispatch_mode == DispatchMode.LEGACY) {
+            decode_execute(opcode);
+        } else {
+            execute(this.decode_table[opcode], opcode);
+        }
+    }
+
+    /**
+     * Runs the given number of cycles. In CACHED and JIT modes this is a tight
+     * loop over the predecoded instructions (and compiled blocks, for JIT),
+     * otherwise it is the same as calling step() that many times.
+     *
+     * The scheduler only ticks the timers and changes keys between calls,
+     * so once the program is idle or polling the delay timer nothing it
+     * could see changes before the call ends, and the rest is skipped with
+     * the same result as running it. Not while profiling, which counts
+     * every cycle, or with setIdleSkip off.
+     *
+     * Returns how many of the cycles ran an instruction, so not counting
+     * those spent halted or waiting on a key or the display tick. A skipped
+     * timer poll counts in full, as it stands for the loop running.
+     */
+    public int run(int cycles) {
+        if (this.profiler == null && this.idle_skip) {
+            if (this.waitingForTick || this.isIdle()) {
+                return 0;
+            }
+            int loop = timer_poll_loop();
+            if (loop >= 0) {
+                skip_timer_poll(loop & 0xFFFF, loop >>> 16, cycles);
+                return cycles;
+            }
+        }
+
+        int executed = 0;
+
+        if (this.decoded == null) {
+            for (int i = 0; i < cycles; i++) {
+                if (!(this.waitingForKey || this.halt_cpu || this.waitingForTick)) {
+                    executed++;
+                }
+                step();
+            }
+            return executed;
+        }
+
+        int[] decoded = this.decoded;
+
+        for (int i = 0; i < cycles; i++) {
+            if (this.waitingForKey || this.halt_cpu || this.waitingForTick) {
+                step();
+                continue;
+            }
+
+            int pc = this.programCounter;
+
+            if (this.jit != null && this.profiler == null) {
+                CompiledBlock block = this.jit.get(pc);
+                if (block == null) {
+                    this.jit.profile(pc, this.memory);
+                } else if (this.jit.length(pc) <= cycles - i) {
+                    // A block counts as one cycle per instruction in it
+                    int length = this.jit.length(pc);
+                    this.I_register = block.run(this.V_registers, this.memory, this.I_register);
+                    this.programCounter = pc + 2 * length;
+                    i += length - 1;
+                    executed += length;
+                    continue;
+                }
+            }
+
+            int entry = decoded[pc];
+            if (entry == 0) {
+                entry = decode_at(pc);
+            }
+
+            if (this.profiler != null) {
+                this.profiler.count((entry >>> 16) - 1, pc);
+            }
+
+            this.programCounter = pc + 2;
+            if (this.programCounter >= MEMORY_CAPACITY) {
+                System.out.println("End of Program Reached... Halting");
+                this.halt_cpu = true;
+            }
+
+            execute((entry >>> 16) - 1, entry & 0xFFFF);
+            executed++;
+        }
+        return executed;
+    }
+
+    /**
+     * Finds the usual wait on the delay timer around the PC:
+     *
+     *   start:  Fx07     LD Vx, DT
+     *           3x00     SE Vx, 0
+     *           1start   JP start
+     *
+     * Returns start | phase << 16, phase being which of the three the PC is
+     * at, or -1 if the PC isn't in one that keeps looping until the next
+     * tick.
+     */
+    private int timer_poll_loop() {
+        if (this.delay_timer == 0) {
+            return -1;
+        }
+
+        for (int phase = 0; phase < 3; phase++) {
+            // A 1nnn jump only reaches the first 4KB
+            int start = this.programCounter - 2 * phase;
+            if (start < 0 || start + 6 > Math.min(MEMORY_CAPACITY, 0x1000)) continue;
+
+            int load = word_at(start);
+            if ((load & 0xF0FF) != 0xF007) continue;
+            int x = (load >>> 8) & 0xF;
+            if (word_at(start + 2) != (0x3000 | x << 8) || word_at(start + 4) != (0x1000 | start)) continue;
+
+            // At the SE, Vx still holds whatever was loaded last time round
+            if (phase == 1 && this.V_registers[x] == 0) return -1;
+            return start | phase << 16;
+        }
+        return -1;
+    }
+
+    // Runs cycles of a timer poll loop at once. With DT fixed until the next
+    // tick, every load gives Vx the same nonzero value and the SE never skips
+    private void skip_timer_poll(int start, int phase, int cycles) {
+        int x = (this.memory[start] & 0x0F);
+        if (cycles >= (3 - phase) % 3 + 1) {
+            this.V_registers[x] = (byte) this.delay_timer;
+        }
+        this.programCounter = start + 2 * ((phase + cycles) % 3);
+    }
+
+    private int word_at(int address) {
+        return ((this.memory[address] & 0xFF) << 8) | (this.memory[address + 1] & 0xFF);
+    }
+
+    private int decode_at(int address) {
+        int opcode = ((this.memory[address] & 0xFF) << 8) | (this.memory[address + 1] & 0xFF);
+        int entry = ((this.decode_table[opcode] + 1) << 16) | opcode;
+        this.decoded[address] = entry;
+        return entry;
+    }
+
+    /**
+     * Drops cached instructions overlapping memory[from..to], called whenever
+     * the program writes to memory. An instruction starting at from - 1 has
+     * its low byte at from, so it goes too.
+     */
+    private void invalidate(int from, int to) {
+        if (this.jit != null) {
+            this.jit.invalidate(from, to);
+        }
+        if (this.decoded == null) {
+            return;
+        }
+
+        int start = Math.max(0, from - 1);
+        int end = Math.min(to, MEMORY_CAPACITY - 1);
+        for (int address = start; address <= end; address++) {
+            this.decoded[address] = 0;
+        }
+    }
+
+    /**
+     * Size of a save state, which depends on how much memory the quirk
+     * profile addresses.
+     */
+    public int getStateSize() {
+        return state_size(MEMORY_CAPACITY);
+    }
+
+    private static int state_size(int memory_size) {
+        return 4 + 2 + 4                          // magic, version, memory size
+                + memory_size + 16 + 2 + 2        // memory, V, I, PC
+                + SubroutineStack.serializedSize(MAX_SUBROUTINES)
+                + 1 + 1                           // delay and sound timers
+                + 1 + 1 + 1 + 1                   // halted, waiting for key/tick, register
+                + 8                               // random state
+                + FrameBuffer.SERIALIZED_SIZE + 1 // screen, selected planes
+                + 16 + 16 + 1;                    // RPL flags, audio pattern, pitch
+    }
+
+    /**
+     * Writes the whole machine state into out, getStateSize() bytes from its
+     * current position. Allocates nothing, so it can run every frame into
+     * a reused buffer.
+     */
+    public void saveState(ByteBuffer out) {
+        out.putInt(STATE_MAGIC);
+        out.putShort(STATE_VERSION);
+        out.putInt(MEMORY_CAPACITY);
+
+        out.put(this.memory, 0, MEMORY_CAPACITY);
+        out.put(this.V_registers);
+        out.putShort((short) this.I_register);
+        out.putShort((short) this.programCounter);
+        this.stack.writeTo(out);
+
+        out.put((byte) this.delay_timer);
+        out.put((byte) this.sound_timer);
+
+        out.put((byte) (this.halt_cpu ? 1 : 0));
+        out.put((byte) (this.waitingForKey ? 1 : 0));
+        out.put((byte) (this.waitingForTick ? 1 : 0));
+        out.put((byte) this.waitingRegister);
+        out.putLong(this.random_state);
+
+        this.frame.writeTo(out);
+        out.put((byte) this.plane_mask);
+        out.put(this.rpl_flags);
+        out.put(this.audio_pattern);
+        out.put((byte) this.pitch);
+    }
+
+    /**
+     * Restores a state written by saveState, reading getStateSize() bytes
+     * from the current position of in.
+     */
+    public void loadState(ByteBuffer in) {
+        if (in.getInt() != STATE_MAGIC || in.getShort() != STATE_VERSION) {
+            throw new IllegalArgumentException("Not a CHIP-8 save state");
+        }
+        if (in.getInt() != MEMORY_CAPACITY) {
+            throw new IllegalArgumentException("Save state is for a different quirk profile");
+        }
+
+        in.get(this.memory, 0, MEMORY_CAPACITY);
+        in.get(this.V_registers);
+        this.I_register = in.getShort() & 0xFFFF;
+        this.programCounter = in.getShort() & 0xFFFF;
+        this.stack.readFrom(in);
+
+        this.delay_timer = in.get() & 0xFF;
+        this.sound_timer = in.get() & 0xFF;
+
+        this.halt_cpu = in.get() != 0;
+        this.waitingForKey = in.get() != 0;
+        this.waitingForTick = in.get() != 0;
+        this.waitingRegister = in.get();
+        this.random_state = in.getLong();
+
+        // Marks every row for the renderer to redraw
+        this.frame.readFrom(in);
+        this.plane_mask = in.get();
+        in.get(this.rpl_flags);
+        in.get(this.audio_pattern);
+        this.pitch = in.get() & 0xFF;
+
+        // All of memory may have changed under the caches
+        invalidate(0, MEMORY_CAPACITY - 1);
+    }
+
+    /**
+     * Counts the delay and sound timers down by one. Called at 60 Hz by the
+     * scheduler, independent of how many instructions run in between.
+     */
+    public void tickTimers() {
+        // Fx18 with n sounds for n ticks
+        audio.tick(sound_timer > 0, audio_pattern, pitch);
 
         if (delay_timer > 0) delay_timer--;
         if (sound_timer > 0) sound_timer--;
+        waitingForTick = false;
+    }
 
+    /**
+     * True while the sound timer runs, the tone playing.
+     */
+    public boolean isSoundOn() {
+        return this.sound_timer > 0;
     }
 
     public boolean isCpuHalted() {
         return this.halt_cpu;
     }
 
+    /**
+     * True once the program can make no further progress on its own: the CPU
+     * has halted, is waiting for a key that isn't held, or is spinning on a
+     * jump to itself (the usual way a rom ends).
+     */
+    public boolean isFinished() {
+        if (this.waitingForKey) {
+            return this.isIdle() && this.keyboard.getKeyMask() == 0;
+        }
+        return this.isIdle();
+    }
+
+    /**
+     * True while running more cycles can't change anything but the timers
+     * until a key is let go: the CPU has halted, is waiting on Fx0A with no
+     * key released yet, or is spinning on a jump to itself. Callers running
+     * flat out can stop early and sleep until the next frame.
+     */
+    public boolean isIdle() {
+        if (this.halt_cpu) {
+            return true;
+        }
+        if (this.waitingForKey) {
+            // Kept for the next step, releases are only handed out once
+            this.released_keys |= this.keyboard.takeReleasedKeys();
+            return this.released_keys == 0;
+        }
+
+        // Past 4KB the same word jumps somewhere else
+        return this.programCounter < 0x1000 && fetch_instruction() == (0x1000 | this.programCounter);
+    }
+
 
     private int fetch_instruction() {
         // NOTE: Fetch 2 bytes everytime.
@@ -115,6 +616,10 @@ public class Chip8 {
     }
 
 
+    /**
+     * The original decoder, kept for comparison with the table dispatch. Both
+     * paths run the same op_ handlers, they only differ in how they get there.
+     */
     private void decode_execute(int opcode) {
         // Nibbles
         int op = (opcode >> 12) & 0xF;
@@ -124,239 +629,668 @@ public class Chip8 {
         int kk = opcode & 0xFF;
         int nnn = opcode & 0xFFF;
 
-        // Standard Chip-8 Instructions
+        // Standard Chip-8 Instructions. Unlike the table, which is built per
+        // quirk profile, this checks the quirks as it goes
         
         if (op == 0) {
-            if (opcode == 0x00E0) { // 00E0 - CLS
-                this.screen = new byte[rows][bytes];
-                
-            } else if (opcode == 0x00EE) { // 00EE - RET
-                // Return from a subroutine
-                // The interpreter sets the PC to the address at top of stack.
-                int return_address = this.stack.pop();
-                if (return_address == 0) {
-                    // FIX: Possible Error?
-                }
-                this.programCounter = return_address;
-
+            if (opcode == 0x00E0) {
+                op_cls();
+            } else if (opcode == 0x00EE) {
+                op_ret();
+            } else if (quirks.superchip && (opcode & 0xFFF0) == 0x00C0) {
+                op_scd(n);
+            } else if (quirks.xochip && (opcode & 0xFFF0) == 0x00D0) {
+                op_scu(n);
+            } else if (quirks.superchip && opcode == 0x00FB) {
+                op_scr();
+            } else if (quirks.superchip && opcode == 0x00FC) {
+                op_scl();
+            } else if (quirks.superchip && opcode == 0x00FD) {
+                op_exit();
+            } else if (quirks.superchip && opcode == 0x00FE) {
+                op_low();
+            } else if (quirks.superchip && opcode == 0x00FF) {
+                op_high();
             } else { // 0nnn - SYS addr
                 // Do nothing, it's for legacy machines
             }
-        } else if (op == 1) { // 1nnn - JP addr
-            // Jump to location nnn. Set PC to nnn.
-            this.programCounter = nnn;
-        } else if (op == 2) { // 2nnn - CALL addr
-            // Call subroutine at nnn. Put current PC on top of the stack.
-            // PC is then set to nnn.
-            
-            // FIX: stack.push can throw an exception
-            this.stack.push(this.programCounter);
-            this.programCounter = nnn;
-        } else if (op == 3) { // 3xkk - SE Vx, byte
-            // Skip next instruction if Vx = kk.
-            if ((this.V_registers[x] & 0xFF) == kk) {
-                this.programCounter += 2;
-            }
-        } else if (op == 4) { // 4xkk - SNE Vx, byte
-            // Skip next instruction if Vx != kk.
-            if ((this.V_registers[x] & 0xFF) != kk) {
-                this.programCounter += 2;
+        } else if (op == 1) {
+            op_jp(nnn);
+        } else if (op == 2) {
+            op_call(nnn);
+        } else if (op == 3) {
+            op_se_byte(x, kk);
+        } else if (op == 4) {
+            op_sne_byte(x, kk);
+        } else if (op == 5) {
+            if (quirks.xochip && n == 2) {
+                op_save_range(x, y);
+            } else if (quirks.xochip && n == 3) {
+                op_load_range(x, y);
+            } else {
+                op_se_reg(x, y);
             }
-        } else if (op == 5) { // 5xy0 - SE Vx, Vy
-            // Skip next instruction if Vx = Vy.
-            if (this.V_registers[x] == this.V_registers[y]) {
-                this.programCounter += 2;
-            }
-        } else if (op == 6) { // 6xkk - LD Vx, byte
-            // The interpreter puts the value kk into register Vx.
-            this.V_registers[x] = (byte) (kk & 0xFF);
-        } else if (op == 7) { // 7xkk - Add Vx, byte
-            // Adds the value kk to the value of register Vx. Stores in Vx.
-            int Vx = this.V_registers[x] & 0xFF;
-            Vx = Vx + kk;
-            this.V_registers[x] = (byte) (Vx & 0xFF);
+        } else if (op == 6) {
+            op_ld_byte(x, kk);
+        } else if (op == 7) {
+            op_add_byte(x, kk);
         } else if (op == 8) {
-            if (n == 0) { // 8xy0 - LD Vx, Vy
-                // Set Vx = Vy
-                this.V_registers[x] = this.V_registers[y];
-            } else if (n == 1) { // 8xy1 - OR Vx, Vy
-                // Set Vx = Vx OR Vy
-                int result = this.V_registers[x] | this.V_registers[y];
-                this.V_registers[x] = (byte) (result & 0xFF);
-            } else if (n == 2) { // 8xy2 - AND Vx, Vy
-                // Set Vx = Vx AND Vy
-                int result = this.V_registers[x] & this.V_registers[y];
-                this.V_registers[x] = (byte) (result & 0xFF);
-            } else if (n == 3) { // 8xy3 - XOR Vx, Vy
-                // Set Vx = Vx XOR Vy
-                int result = this.V_registers[x] ^ this.V_registers[y];
-                this.V_registers[x] = (byte) (result & 0xFF);
-            } else if (n == 4) { // 8xy4 - ADD Vx, Vy
-                // Set Vx = Vx + Vy, Set VF = carry
-                int vx = V_registers[x] & 0xFF;
-                int vy = V_registers[y] & 0XFF;
-                int sum = vx + vy;
-                V_registers[0xF] = (byte) (sum > 255 ? 1 : 0);
-                V_registers[x] = (byte) (sum & 0xFF);
-            } else if (n == 5) { // 8xy5 - SUB Vx, Vy
-                // Set Vx = Vx - Vy, Set VF = NOT borrow
-                int vx = V_registers[x] & 0xFF;
-                int vy = V_registers[y] & 0XFF;
-                V_registers[0xF] = (byte) (vx > vy ? 1 : 0);
-                int result = vx - vy;
-                V_registers[x] = (byte) (result & 0xFF);
-            } else if (n == 6) { // 8xy6 - SHR Vx {, Vy}
-                // Set Vx = Vx SHR 1
-                // If the LSB f Vx is 1, then VF is set to 1, otherwise 0.
-                // Then Vx is divided by 2.
-                int vx = V_registers[x] & 0xFF;
-                int lsb = vx & 0x01;
-                V_registers[0xF] = (byte) (lsb & 0xFF);
-                vx = vx >> 1; // SHR
-                V_registers[x] = (byte) (vx & 0xFF);
-            } else if (n == 7) { // 8xy7 - SUBN Vx, Vy
-                // Set Vx = Vy - Vx, Set VF = NOT borrow
-                int vx = V_registers[x] & 0xFF;
-                int vy = V_registers[y] & 0XFF;
-                V_registers[0xF] = (byte) (vy > vx ? 1 : 0);
-                int result = vy - vx;
-                V_registers[x] = (byte) (result & 0xFF);
-            } else if (n == 0xE) { // 8xyE - SHL Vx {, Vy}
-                // Set Vx = Vx SHL 1.
-                // If the MSB of Vx is 1, Set VF to 1, otherwise 0. Then Vx
-                // is multiplied by 2.
-                int vx = V_registers[x] & 0xFF;
-                int msb = (vx & 0x80) >> 7;  // msb will be 0 or 1
-                V_registers[0xF] = (byte) (msb & 0xFF);
-                vx = (vx << 1) & 0xFF; // SHL, mask to 8-bit
-                V_registers[x] = (byte) (vx & 0xFF);
-            }
-        } else if (op == 9) { // 9xy0 - SNE Vx, Vy
-            // Skip next instruction if Vx != Vy.
-            if (this.V_registers[x] != this.V_registers[y]) {
-                this.programCounter += 2;
+            if (n == 0) {
+                op_ld_reg(x, y);
+            } else if (n == 1) {
+                if (quirks.vf_reset) op_or_vf_reset(x, y); else op_or(x, y);
+            } else if (n == 2) {
+                if (quirks.vf_reset) op_and_vf_reset(x, y); else op_and(x, y);
+            } else if (n == 3) {
+                if (quirks.vf_reset) op_xor_vf_reset(x, y); else op_xor(x, y);
+            } else if (n == 4) {
+                op_add_reg(x, y);
+            } else if (n == 5) {
+                op_sub(x, y);
+            } else if (n == 6) {
+                if (quirks.shift_vy) op_shr_vy(x, y); else op_shr(x);
+            } else if (n == 7) {
+                op_subn(x, y);
+            } else if (n == 0xE) {
+                if (quirks.shift_vy) op_shl_vy(x, y); else op_shl(x);
             }
-        } else if (op == 0xA) { // Annn - LD I, addr
-            // Set I register to nnn.
-            I_register = nnn;
-        } else if (op == 0xB) { // Bnnn - JP V0, addr
-            // Jump to location nnn + V0.
-            int v0 = this.V_registers[0] & 0xFF;
-            int location = nnn + v0;
-            this.programCounter = (byte) (location & 0xFFF); // 0xFFF for 12 bits
-        } else if (op == 0xC) { // Cxkk - RND Vx, byte
-            // Generate a random number (0-255). And with kk. Put in Vx
-            int rnd = this.random.nextInt(256); // 0 - 255
-            int result = kk & rnd;
-            this.V_registers[x] = (byte) (result & 0XFF);
-        } else if (op == 0xD) { // Dxyn - DRW Vx, Vy, nibble
-            // Display n-bytes sprite starting at memory location I at (Vx, Vy),
-            // Set VF = collion.
-            byte vx = V_registers[x];
-            byte vy = V_registers[y];
-            display_sprite(vx, vy, n);
+        } else if (op == 9) {
+            op_sne_reg(x, y);
+        } else if (op == 0xA) {
+            op_ld_i(nnn);
+        } else if (op == 0xB) {
+            if (quirks.jump_vx) op_jp_vx(x, nnn); else op_jp_v0(nnn);
+        } else if (op == 0xC) {
+            op_rnd(x, kk);
+        } else if (op == 0xD) {
+            if (quirks.superchip && n == 0) {
+                if (quirks.clipping) op_drw_large_clip(x, y); else op_drw_large(x, y);
+            } else if (!quirks.clipping) op_drw(x, y, n);
+            else if (quirks.display_wait) op_drw_clip_wait(x, y, n);
+            else op_drw_clip(x, y, n);
         } else if (op == 0xE) {
-            // TODO: Need Keyboard Input
-            if (y == 0x9 && n == 0xE) { // Ex9E - SKP Vx
-                // Skip next instruction if key with the value of Vx is pressed.
-                int vx = V_registers[x] & 0xFF;
-                if(this.keyboard.isKeyPressed(vx)) {
-                    this.programCounter += 2;
-                }
-            } else if (y == 0xA && n == 0x1) { // ExA1 - SKNP Vx
-                // Skip next instruction if key with the value of Vx is not pressed.
-                int vx = V_registers[x] & 0xFF;
-                if(!this.keyboard.isKeyPressed(vx)) {
-                    this.programCounter += 2;
-                }
+            if (y == 0x9 && n == 0xE) {
+                op_skp(x);
+            } else if (y == 0xA && n == 0x1) {
+                op_sknp(x);
             }
         } else { // Else op == 0xF
-            if (y == 0x0 && n == 0x7) { // Fx07 - LD Vx, DT
-                // Set Vx = delay timer value
-                this.V_registers[x] = (byte) (this.delay_timer & 0xFF);
-            } else if (y == 0x0 && n == 0xA) { // Fx0A - LD Vx, K
-                // Wait for a key press, store the value of the key in Vx.
-                // All execution stops until a key is pressed.
-                this.waitingForKey = true;
-                this.waitingRegister = x;
-            } else if (y == 0x1 && n == 0x5) { // Fx15 - LD DT, Vx
-                // Set delay timer = Vx.
-                this.delay_timer = (this.V_registers[x] & 0xFF);
-            } else if (y == 0x1 && n == 0x8) { // Fx18 - LD ST, Vx
-                // Set the sound timer = Vx.
-                this.sound_timer = (this.V_registers[x] & 0xFF);
-            } else if (y == 0x1 && n == 0xE) { // Fx1E - ADD I, Vx.
-                // Set I = I + Vx.
-                int vx_value = this.V_registers[x] & 0xFF;
-                this.I_register += vx_value;
-            } else if (kk == 0x29) { // Fx29 - LD F, Vx
-                // Set I = location of sprite for digit Vx.
-                int vx = this.V_registers[x] & 0xFF;
-                this.I_register = this.get_digit_sprite_location(vx);
-            } else if (kk == 0x33) { // Fx33 - LD B, Vx
-                // Store BCD representation of Vx in memory locations I, I+1, and I+2
-                int vx = this.V_registers[x] & 0xFF;
-                int hundredsDigit = (vx / 100) % 10;
-                int tensDigit =  (vx / 10) % 10;
-                int onesDigit = vx % 10;
-
-                this.memory[this.I_register] = (byte) (hundredsDigit  & 0xFF);
-                this.memory[this.I_register + 1] = (byte) (tensDigit  & 0xFF);
-                this.memory[this.I_register + 2] = (byte) (onesDigit  & 0xFF);
-
-
-            } else if (kk == 0x55) { // Fx55 - LD [I], Vx
-                // Store registers V0 through Vx in memory starting at Location I.
-                int starting_location = this.I_register;
-                int vx = this.V_registers[x] & 0xFF;
-
-                for (int i = 0; i < vx; i++) {
-                    byte register = this.V_registers[i];
-                    this.memory[starting_location++] = register;
-                }
-            } else if (kk == 0x65) { // Fx65 - LD Vx, [I]
-                // Read registers V0 through Vx from memory starting at location I.
-                int starting_location = this.I_register;
-                int vx = this.V_registers[x] & 0xFF;
-
-                for (int i = 0; i < vx; i++) {
-                    this.V_registers[i] = this.memory[starting_location++];
-                }
+            if (quirks.xochip && opcode == 0xF000) {
+                op_ld_i_long();
+            } else if (quirks.xochip && kk == 0x01) {
+                op_plane(x);
+            } else if (quirks.xochip && opcode == 0xF002) {
+                op_audio();
+            } else if (quirks.xochip && kk == 0x3A) {
+                op_pitch(x);
+            } else if (quirks.superchip && kk == 0x30) {
+                op_ld_hf(x);
+            } else if (quirks.superchip && kk == 0x75) {
+                op_ld_r_vx(x);
+            } else if (quirks.superchip && kk == 0x85) {
+                op_ld_vx_r(x);
+            } else if (y == 0x0 && n == 0x7) {
+                op_ld_vx_dt(x);
+            } else if (y == 0x0 && n == 0xA) {
+                op_ld_vx_k(x);
+            } else if (y == 0x1 && n == 0x5) {
+                op_ld_dt_vx(x);
+            } else if (y == 0x1 && n == 0x8) {
+                op_ld_st_vx(x);
+            } else if (y == 0x1 && n == 0xE) {
+                op_add_i(x);
+            } else if (kk == 0x29) {
+                op_ld_f(x);
+            } else if (kk == 0x33) {
+                op_ld_b(x);
+            } else if (kk == 0x55) {
+                if (quirks.memory_increment) op_ld_mem_vx_inc(x); else op_ld_mem_vx(x);
+            } else if (kk == 0x65) {
+                if (quirks.memory_increment) op_ld_vx_mem_inc(x); else op_ld_vx_mem(x);
             }
         }
     }
 
 
-    private void display_sprite(byte vx, byte vy, int n) {
-        V_registers[0xF] = 0;
-        int xStart = vx & 0xFF;
-        int yStart = vy & 0xFF;
+    /**
+     * Table dispatch: the instruction id comes from Opcodes.DECODE_TABLE (or
+     * the predecoded cache), and the switch compiles to a single jump table.
+     * Each case only pulls out the operands its instruction uses.
+     */
+    private void execute(int instruction, int opcode) {
+        int x = (opcode >> 8) & 0xF;
 
-        for (int row = 0; row < n; row++) {
-            int y = (yStart + row) % this.rows;
-            byte spriteByte = memory[I_register + row];
+        switch (instruction) {
+            case Opcodes.CLS -> op_cls();
+            case Opcodes.RET -> op_ret();
+            case Opcodes.JP -> op_jp(opcode & 0xFFF);
+            case Opcodes.CALL -> op_call(opcode & 0xFFF);
+            case Opcodes.SE_BYTE -> op_se_byte(x, opcode & 0xFF);
+            case Opcodes.SNE_BYTE -> op_sne_byte(x, opcode & 0xFF);
+            case Opcodes.SE_REG -> op_se_reg(x, (opcode >> 4) & 0xF);
+            case Opcodes.LD_BYTE -> op_ld_byte(x, opcode & 0xFF);
+            case Opcodes.ADD_BYTE -> op_add_byte(x, opcode & 0xFF);
+            case Opcodes.LD_REG -> op_ld_reg(x, (opcode >> 4) & 0xF);
+            case Opcodes.OR -> op_or(x, (opcode >> 4) & 0xF);
+            case Opcodes.AND -> op_and(x, (opcode >> 4) & 0xF);
+            case Opcodes.XOR -> op_xor(x, (opcode >> 4) & 0xF);
+            case Opcodes.ADD_REG -> op_add_reg(x, (opcode >> 4) & 0xF);
+            case Opcodes.SUB -> op_sub(x, (opcode >> 4) & 0xF);
+            case Opcodes.SHR -> op_shr(x);
+            case Opcodes.SUBN -> op_subn(x, (opcode >> 4) & 0xF);
+            case Opcodes.SHL -> op_shl(x);
+            case Opcodes.SNE_REG -> op_sne_reg(x, (opcode >> 4) & 0xF);
+            case Opcodes.LD_I -> op_ld_i(opcode & 0xFFF);
+            case Opcodes.JP_V0 -> op_jp_v0(opcode & 0xFFF);
+            case Opcodes.RND -> op_rnd(x, opcode & 0xFF);
+            case Opcodes.DRW -> op_drw(x, (opcode >> 4) & 0xF, opcode & 0xF);
+            case Opcodes.SKP -> op_skp(x);
+            case Opcodes.SKNP -> op_sknp(x);
+            case Opcodes.LD_VX_DT -> op_ld_vx_dt(x);
+            case Opcodes.LD_VX_K -> op_ld_vx_k(x);
+            case Opcodes.LD_DT_VX -> op_ld_dt_vx(x);
+            case Opcodes.LD_ST_VX -> op_ld_st_vx(x);
+            case Opcodes.ADD_I -> op_add_i(x);
+            case Opcodes.LD_F -> op_ld_f(x);
+            case Opcodes.LD_B -> op_ld_b(x);
+            case Opcodes.LD_MEM_VX -> op_ld_mem_vx(x);
+            case Opcodes.LD_VX_MEM -> op_ld_vx_mem(x);
+            case Opcodes.OR_VF_RESET -> op_or_vf_reset(x, (opcode >> 4) & 0xF);
+            case Opcodes.AND_VF_RESET -> op_and_vf_reset(x, (opcode >> 4) & 0xF);
+            case Opcodes.XOR_VF_RESET -> op_xor_vf_reset(x, (opcode >> 4) & 0xF);
+            case Opcodes.SHR_VY -> op_shr_vy(x, (opcode >> 4) & 0xF);
+            case Opcodes.SHL_VY -> op_shl_vy(x, (opcode >> 4) & 0xF);
+            case Opcodes.JP_VX -> op_jp_vx(x, opcode & 0xFFF);
+            case Opcodes.LD_MEM_VX_INC -> op_ld_mem_vx_inc(x);
+            case Opcodes.LD_VX_MEM_INC -> op_ld_vx_mem_inc(x);
+            case Opcodes.DRW_CLIP -> op_drw_clip(x, (opcode >> 4) & 0xF, opcode & 0xF);
+            case Opcodes.DRW_CLIP_WAIT -> op_drw_clip_wait(x, (opcode >> 4) & 0xF, opcode & 0xF);
+            case Opcodes.SCD -> op_scd(opcode & 0xF);
+            case Opcodes.SCU -> op_scu(opcode & 0xF);
+            case Opcodes.SCR -> op_scr();
+            case Opcodes.SCL -> op_scl();
+            case Opcodes.EXIT -> op_exit();
+            case Opcodes.LOW -> op_low();
+            case Opcodes.HIGH -> op_high();
+            case Opcodes.DRW_LARGE -> op_drw_large(x, (opcode >> 4) & 0xF);
+            case Opcodes.DRW_LARGE_CLIP -> op_drw_large_clip(x, (opcode >> 4) & 0xF);
+            case Opcodes.LD_HF -> op_ld_hf(x);
+            case Opcodes.LD_R_VX -> op_ld_r_vx(x);
+            case Opcodes.LD_VX_R -> op_ld_vx_r(x);
+            case Opcodes.SAVE_RANGE -> op_save_range(x, (opcode >> 4) & 0xF);
+            case Opcodes.LOAD_RANGE -> op_load_range(x, (opcode >> 4) & 0xF);
+            case Opcodes.LD_I_LONG -> op_ld_i_long();
+            case Opcodes.PLANE -> op_plane(x);
+            case Opcodes.AUDIO -> op_audio();
+            case Opcodes.PITCH -> op_pitch(x);
+            default -> { } // 0nnn - SYS addr, and unknown opcodes
+        }
+    }
 
-            for (int bit = 0; bit < 8; bit++) {
-                if (((spriteByte >> (7 - bit)) & 1) == 0) continue;
 
-                int x = (xStart + bit) % 64;
+    private void op_cls() { // 00E0 - CLS
+        this.frame.clear(this.plane_mask);
+    }
 
-                int byteIndex = x / this.bytes;
-                int bitIndex = 7 - (x % this.bytes);
+    private void op_scd(int n) { // 00Cn - SCD nibble
+        // Scroll the display down n rows
+        this.frame.scrollDown(n, this.plane_mask);
+    }
 
-                int mask = 1 << bitIndex;
+    private void op_scu(int n) { // 00Dn - SCU nibble (XO-CHIP)
+        // Scroll the display up n rows
+        this.frame.scrollUp(n, this.plane_mask);
+    }
 
-                // Get the current state of the specific pixel we are looking at
-                // If (screen byte AND mask) is NOT zero, the pixel is currently ON
-                if ((screen[y][byteIndex] & mask) != 0) {
-                    V_registers[0xF] = 1; // collision
-                }
+    private void op_scr() { // 00FB - SCR
+        // Scroll the display right 4 pixels
+        this.frame.scrollRight(4, this.plane_mask);
+    }
 
-                screen[y][byteIndex] ^= (byte) mask;
-            }
+    private void op_scl() { // 00FC - SCL
+        // Scroll the display left 4 pixels
+        this.frame.scrollLeft(4, this.plane_mask);
+    }
+
+    private void op_exit() { // 00FD - EXIT
+        this.halt_cpu = true;
+    }
+
+    private void op_low() { // 00FE - LOW
+        // 64x32, clearing the screen
+        this.frame.setHires(false);
+    }
+
+    private void op_high() { // 00FF - HIGH
+        // 128x64, clearing the screen
+        this.frame.setHires(true);
+    }
+
+    private void op_ret() { // 00EE - RET
+        // Return from a subroutine
+        // The interpreter sets the PC to the address at top of stack.
+        int return_address = this.stack.pop();
+        if (return_address == 0) {
+            // FIX: Possible Error?
+        }
+        this.programCounter = return_address;
+    }
+
+    private void op_jp(int nnn) { // 1nnn - JP addr
+        // Jump to location nnn. Set PC to nnn.
+        this.programCounter = nnn;
+    }
+
+    private void op_call(int nnn) { // 2nnn - CALL addr
+        // Call subroutine at nnn. Put current PC on top of the stack.
+        // PC is then set to nnn.
+
+        // FIX: stack.push can throw an exception
+        this.stack.push(this.programCounter);
+        this.programCounter = nnn;
+    }
+
+    private void op_se_byte(int x, int kk) { // 3xkk - SE Vx, byte
+        // Skip next instruction if Vx = kk.
+        if ((this.V_registers[x] & 0xFF) == kk) {
+            skip();
+        }
+    }
+
+    private void op_sne_byte(int x, int kk) { // 4xkk - SNE Vx, byte
+        // Skip next instruction if Vx != kk.
+        if ((this.V_registers[x] & 0xFF) != kk) {
+            skip();
+        }
+    }
+
+    private void op_se_reg(int x, int y) { // 5xy0 - SE Vx, Vy
+        // Skip next instruction if Vx = Vy.
+        if (this.V_registers[x] == this.V_registers[y]) {
+            skip();
+        }
+    }
+
+    private void op_save_range(int x, int y) { // 5xy2 - SAVE Vx - Vy (XO-CHIP)
+        // Store Vx through Vy, in either order, in memory starting at I.
+        // I doesn't change
+        int step = x <= y ? 1 : -1;
+        int count = Math.abs(y - x) + 1;
+        for (int i = 0; i < count; i++) {
+            this.memory[(this.I_register + i) & (MEMORY_CAPACITY - 1)] = this.V_registers[x + i * step];
+        }
+        invalidate(this.I_register, this.I_register + count - 1);
+    }
+
+    private void op_load_range(int x, int y) { // 5xy3 - LOAD Vx - Vy (XO-CHIP)
+        // Read Vx through Vy, in either order, from memory starting at I
+        int step = x <= y ? 1 : -1;
+        int count = Math.abs(y - x) + 1;
+        for (int i = 0; i < count; i++) {
+            this.V_registers[x + i * step] = this.memory[(this.I_register + i) & (MEMORY_CAPACITY - 1)];
+        }
+    }
+
+    // Skips the next instruction, which under XO-CHIP may be the four byte
+    // F000 nnnn
+    private void skip() {
+        // Past the end there's nothing to skip over, the CPU halts anyway
+        int next = this.programCounter < this.memory.length - 1 ? fetch_instruction() : 0;
+        this.programCounter += this.decode_table[next] == Opcodes.LD_I_LONG ? 4 : 2;
+    }
+
+    private void op_ld_byte(int x, int kk) { // 6xkk - LD Vx, byte
+        // The interpreter puts the value kk into register Vx.
+        this.V_registers[x] = (byte) (kk & 0xFF);
+    }
+
+    private void op_add_byte(int x, int kk) { // 7xkk - Add Vx, byte
+        // Adds the value kk to the value of register Vx. Stores in Vx.
+        int Vx = this.V_registers[x] & 0xFF;
+        Vx = Vx + kk;
+        this.V_registers[x] = (byte) (Vx & 0xFF);
+    }
+
+    private void op_ld_reg(int x, int y) { // 8xy0 - LD Vx, Vy
+        // Set Vx = Vy
+        this.V_registers[x] = this.V_registers[y];
+    }
+
+    private void op_or(int x, int y) { // 8xy1 - OR Vx, Vy
+        // Set Vx = Vx OR Vy
+        int result = this.V_registers[x] | this.V_registers[y];
+        this.V_registers[x] = (byte) (result & 0xFF);
+    }
+
+    private void op_and(int x, int y) { // 8xy2 - AND Vx, Vy
+        // Set Vx = Vx AND Vy
+        int result = this.V_registers[x] & this.V_registers[y];
+        this.V_registers[x] = (byte) (result & 0xFF);
+    }
+
+    private void op_xor(int x, int y) { // 8xy3 - XOR Vx, Vy
+        // Set Vx = Vx XOR Vy
+        int result = this.V_registers[x] ^ this.V_registers[y];
+        this.V_registers[x] = (byte) (result & 0xFF);
+    }
+
+    // 8xy1, 8xy2 and 8xy3 under the VF reset quirk also clear VF
+    private void op_or_vf_reset(int x, int y) {
+        op_or(x, y);
+        this.V_registers[0xF] = 0;
+    }
+
+    private void op_and_vf_reset(int x, int y) {
+        op_and(x, y);
+        this.V_registers[0xF] = 0;
+    }
+
+    private void op_xor_vf_reset(int x, int y) {
+        op_xor(x, y);
+        this.V_registers[0xF] = 0;
+    }
+
+    private void op_add_reg(int x, int y) { // 8xy4 - ADD Vx, Vy
+        // Set Vx = Vx + Vy, Set VF = carry
+        int vx = V_registers[x] & 0xFF;
+        int vy = V_registers[y] & 0XFF;
+        int sum = vx + vy;
+        // VF last, so the flag wins when x is F
+        V_registers[x] = (byte) (sum & 0xFF);
+        V_registers[0xF] = (byte) (sum > 255 ? 1 : 0);
+    }
+
+    private void op_sub(int x, int y) { // 8xy5 - SUB Vx, Vy
+        // Set Vx = Vx - Vy, Set VF = NOT borrow
+        int vx = V_registers[x] & 0xFF;
+        int vy = V_registers[y] & 0XFF;
+        int result = vx - vy;
+        V_registers[x] = (byte) (result & 0xFF);
+        V_registers[0xF] = (byte) (vx >= vy ? 1 : 0);
+    }
+
+    private void op_shr(int x) { // 8xy6 - SHR Vx {, Vy}
+        // Set Vx = Vx SHR 1
+        // If the LSB f Vx is 1, then VF is set to 1, otherwise 0.
+        // Then Vx is divided by 2.
+        int vx = V_registers[x] & 0xFF;
+        int lsb = vx & 0x01;
+        vx = vx >> 1; // SHR
+        V_registers[x] = (byte) (vx & 0xFF);
+        V_registers[0xF] = (byte) (lsb & 0xFF);
+    }
+
+    private void op_shr_vy(int x, int y) { // 8xy6 - SHR Vx, Vy (shift quirk)
+        // Set Vx = Vy SHR 1, VF = the bit shifted out
+        int vy = V_registers[y] & 0xFF;
+        V_registers[x] = (byte) (vy >> 1);
+        V_registers[0xF] = (byte) (vy & 0x01);
+    }
+
+    private void op_subn(int x, int y) { // 8xy7 - SUBN Vx, Vy
+        // Set Vx = Vy - Vx, Set VF = NOT borrow
+        int vx = V_registers[x] & 0xFF;
+        int vy = V_registers[y] & 0XFF;
+        int result = vy - vx;
+        V_registers[x] = (byte) (result & 0xFF);
+        V_registers[0xF] = (byte) (vy >= vx ? 1 : 0);
+    }
+
+    private void op_shl(int x) { // 8xyE - SHL Vx {, Vy}
+        // Set Vx = Vx SHL 1.
+        // If the MSB of Vx is 1, Set VF to 1, otherwise 0. Then Vx
+        // is multiplied by 2.
+        int vx = V_registers[x] & 0xFF;
+        int msb = (vx & 0x80) >> 7;  // msb will be 0 or 1
+        vx = (vx << 1) & 0xFF; // SHL, mask to 8-bit
+        V_registers[x] = (byte) (vx & 0xFF);
+        V_registers[0xF] = (byte) (msb & 0xFF);
+    }
+
+    private void op_shl_vy(int x, int y) { // 8xyE - SHL Vx, Vy (shift quirk)
+        // Set Vx = Vy SHL 1, VF = the bit shifted out
+        int vy = V_registers[y] & 0xFF;
+        V_registers[x] = (byte) (vy << 1);
+        V_registers[0xF] = (byte) (vy >> 7);
+    }
+
+    private void op_sne_reg(int x, int y) { // 9xy0 - SNE Vx, Vy
+        // Skip next instruction if Vx != Vy.
+        if (this.V_registers[x] != this.V_registers[y]) {
+            skip();
         }
     }
 
+    private void op_ld_i(int nnn) { // Annn - LD I, addr
+        // Set I register to nnn.
+        I_register = nnn;
+    }
+
+    private void op_jp_v0(int nnn) { // Bnnn - JP V0, addr
+        // Jump to location nnn + V0.
+        int v0 = this.V_registers[0] & 0xFF;
+        int location = nnn + v0;
+        this.programCounter = location & 0xFFF; // 0xFFF for 12 bits
+    }
+
+    private void op_jp_vx(int x, int nnn) { // Bxnn - JP Vx, addr (jump quirk)
+        // Jump to location xnn + Vx.
+        int vx = this.V_registers[x] & 0xFF;
+        this.programCounter = (nnn + vx) & 0xFFF;
+    }
+
+    private void op_rnd(int x, int kk) { // Cxkk - RND Vx, byte
+        // Generate a random number (0-255). And with kk. Put in Vx
+        int rnd = next_random() & 0xFF; // 0 - 255
+        int result = kk & rnd;
+        this.V_registers[x] = (byte) (result & 0XFF);
+    }
+
+    private int next_random() {
+        long x = this.random_state;
+        x ^= x >>> 12;
+        x ^= x << 25;
+        x ^= x >>> 27;
+        this.random_state = x;
+
+        // Top bits of the product are the well mixed ones
+        return (int) ((x * 0x2545F4914F6CDD1DL) >>> 32);
+    }
+
+    private static long seed_to_state(long seed) {
+        // xorshift never leaves an all zero state, so mix the seed and
+        // swap a zero out for a fixed constant
+        long state = (seed ^ 0x9E3779B97F4A7C15L) * 0xBF58476D1CE4E5B9L;
+        return state == 0 ? 0x9E3779B97F4A7C15L : state;
+    }
+
+    private void op_drw(int x, int y, int n) { // Dxyn - DRW Vx, Vy, nibble
+        // Display n-bytes sprite starting at memory location I at (Vx, Vy),
+        // Set VF = collion.
+        byte vx = V_registers[x];
+        byte vy = V_registers[y];
+        display_sprite(vx, vy, n, false, false);
+    }
+
+    private void op_drw_clip(int x, int y, int n) { // Dxyn, clipping quirk
+        display_sprite(V_registers[x], V_registers[y], n, false, true);
+    }
+
+    private void op_drw_clip_wait(int x, int y, int n) { // Dxyn, clipping and display wait quirks
+        // The original interpreter drew in the vertical blank, so nothing
+        // runs after a draw until the next 60 Hz tick
+        display_sprite(V_registers[x], V_registers[y], n, false, true);
+        this.waitingForTick = true;
+    }
+
+    private void op_drw_large(int x, int y) { // Dxy0 - DRW Vx, Vy, 0 (SUPER-CHIP)
+        // 16x16 sprite, two bytes per row
+        display_sprite(V_registers[x], V_registers[y], 16, true, false);
+    }
+
+    private void op_drw_large_clip(int x, int y) { // Dxy0, clipping quirk
+        display_sprite(V_registers[x], V_registers[y], 16, true, true);
+    }
+
+    private void op_skp(int x) { // Ex9E - SKP Vx
+        // Skip next instruction if key with the value of Vx is pressed.
+        int vx = V_registers[x] & 0xFF;
+        if(this.keyboard.isKeyPressed(vx)) {
+            skip();
+        }
+    }
+
+    private void op_sknp(int x) { // ExA1 - SKNP Vx
+        // Skip next instruction if key with the value of Vx is not pressed.
+        int vx = V_registers[x] & 0xFF;
+        if(!this.keyboard.isKeyPressed(vx)) {
+            skip();
+        }
+    }
+
+    private void op_ld_vx_dt(int x) { // Fx07 - LD Vx, DT
+        // Set Vx = delay timer value
+        this.V_registers[x] = (byte) (this.delay_timer & 0xFF);
+    }
+
+    private void op_ld_vx_k(int x) { // Fx0A - LD Vx, K
+        // Wait for a key press and release, store the value of the key in
+        // Vx. All execution stops until then. Releases from before the
+        // wait don't count.
+        this.waitingForKey = true;
+        this.waitingRegister = x;
+        this.keyboard.takeReleasedKeys();
+        this.released_keys = 0;
+    }
+
+    private void op_ld_dt_vx(int x) { // Fx15 - LD DT, Vx
+        // Set delay timer = Vx.
+        this.delay_timer = (this.V_registers[x] & 0xFF);
+    }
+
+    private void op_ld_st_vx(int x) { // Fx18 - LD ST, Vx
+        // Set the sound timer = Vx.
+        this.sound_timer = (this.V_registers[x] & 0xFF);
+    }
+
+    private void op_add_i(int x) { // Fx1E - ADD I, Vx.
+        // Set I = I + Vx.
+        int vx_value = this.V_registers[x] & 0xFF;
+        this.I_register += vx_value;
+    }
+
+    private void op_ld_f(int x) { // Fx29 - LD F, Vx
+        // Set I = location of sprite for digit Vx.
+        int vx = this.V_registers[x] & 0xFF;
+        this.I_register = this.get_digit_sprite_location(vx);
+    }
+
+    private void op_ld_hf(int x) { // Fx30 - LD HF, Vx (SUPER-CHIP)
+        // Set I = location of the 8x10 sprite for digit Vx.
+        int vx = this.V_registers[x] & 0xF;
+        this.I_register = this.BIG_FONT_START + vx * 10;
+    }
+
+    private void op_ld_b(int x) { // Fx33 - LD B, Vx
+        // Store BCD representation of Vx in memory locations I, I+1, and I+2
+        int vx = this.V_registers[x] & 0xFF;
+        int hundredsDigit = (vx / 100) % 10;
+        int tensDigit =  (vx / 10) % 10;
+        int onesDigit = vx % 10;
+
+        this.memory[this.I_register] = (byte) (hundredsDigit  & 0xFF);
+        this.memory[this.I_register + 1] = (byte) (tensDigit  & 0xFF);
+        this.memory[this.I_register + 2] = (byte) (onesDigit  & 0xFF);
+        invalidate(this.I_register, this.I_register + 2);
+    }
+
+    private void op_ld_mem_vx(int x) { // Fx55 - LD [I], Vx
+        // Store registers V0 through Vx in memory starting at Location I.
+        // x is the last register index, inclusive
+        int starting_location = this.I_register;
+
+        for (int i = 0; i <= x; i++) {
+            byte register = this.V_registers[i];
+            this.memory[starting_location++] = register;
+        }
+        invalidate(this.I_register, this.I_register + x);
+    }
+
+    private void op_ld_mem_vx_inc(int x) { // Fx55, memory quirk
+        // As Fx55, then I is left past the last register stored
+        op_ld_mem_vx(x);
+        this.I_register += x + 1;
+    }
+
+    private void op_ld_vx_mem(int x) { // Fx65 - LD Vx, [I]
+        // Read registers V0 through Vx from memory starting at location I.
+        int starting_location = this.I_register;
+
+        for (int i = 0; i <= x; i++) {
+            this.V_registers[i] = this.memory[starting_location++];
+        }
+    }
+
+    private void op_ld_vx_mem_inc(int x) { // Fx65, memory quirk
+        // As Fx65, then I is left past the last register read
+        op_ld_vx_mem(x);
+        this.I_register += x + 1;
+    }
+
+    private void op_ld_r_vx(int x) { // Fx75 - LD R, Vx (SUPER-CHIP)
+        // Store V0 through Vx in the RPL user flags.
+        System.arraycopy(this.V_registers, 0, this.rpl_flags, 0, x + 1);
+    }
+
+    private void op_ld_vx_r(int x) { // Fx85 - LD Vx, R (SUPER-CHIP)
+        // Read V0 through Vx from the RPL user flags.
+        System.arraycopy(this.rpl_flags, 0, this.V_registers, 0, x + 1);
+    }
+
+    private void op_ld_i_long() { // F000 nnnn - LD I, long addr (XO-CHIP)
+        // Set I to the 16-bit address in the next two bytes, and skip them
+        this.I_register = fetch_instruction();
+        this.programCounter += 2;
+    }
+
+    private void op_plane(int n) { // Fn01 - PLANE n (XO-CHIP)
+        // Select the bitplanes drawing, clearing and scrolling act on
+        this.plane_mask = n & 0x3;
+    }
+
+    private void op_audio() { // F002 - AUDIO (XO-CHIP)
+        // Load the 16 byte sound pattern from I
+        for (int i = 0; i < this.audio_pattern.length; i++) {
+            this.audio_pattern[i] = this.memory[(this.I_register + i) & (MEMORY_CAPACITY - 1)];
+        }
+    }
+
+    private void op_pitch(int x) { // Fx3A - PITCH Vx (XO-CHIP)
+        // Set the playback rate of the sound pattern
+        this.pitch = this.V_registers[x] & 0xFF;
+    }
+
+
+    private void display_sprite(byte vx, byte vy, int n, boolean wide, boolean clip) {
+        // The starting position always wraps, the sprite itself either wraps
+        // or is cut off at the edges
+        int xStart = (vx & 0xFF) & (this.frame.getWidth() - 1);
+        int yStart = (vy & 0xFF) & (this.frame.getHeight() - 1);
+        boolean collision = false;
+
+        // Each selected plane takes the next sprite's worth of bytes
+        int address = this.I_register;
+        for (int plane = 0; plane < FrameBuffer.PLANES; plane++) {
+            if ((this.plane_mask & (1 << plane)) == 0) continue;
+
+            collision |= this.frame.drawSprite(plane, this.memory, address, MEMORY_CAPACITY - 1,
+                    xStart, yStart, n, wide, clip);
+            address += wide ? 2 * n : n;
+        }
+
+        V_registers[0xF] = (byte) (collision ? 1 : 0);
+    }
+
     private int get_digit_sprite_location(int digit) {
         int font_start = this.FONT_START;
         int font_size = 5; // 5 bytes per font
@@ -366,15 +1300,12 @@ public class Chip8 {
 
 
     /**
+     * Loads a rom from a file, an archive entry, or the classpath (see
+     * RomLoader). Prints the error and leaves memory empty if it can't.
      */
     private boolean load_rom_to_memory(String path) {
         try {
-            byte[] rom = RomLoader.loadRom(path);
-
-            for (int i = 0; i < rom.length; i++) {
-                this.memory[START_OF_PROGRAM + i] = rom[i];
-            }
-
+            this.copy_rom_to_memory(RomLoader.loadRom(path));
             return true;
         } catch (IOException e) {
             System.err.println(e.getMessage());
@@ -382,7 +1313,27 @@ public class Chip8 {
         }
     }
 
+    private void check_rom_size(int size, int memory_size) {
+        int program_area = memory_size - this.START_OF_PROGRAM;
+        if (size > program_area) {
+            throw new IllegalArgumentException("Rom too large: " + size
+                    + " bytes, the program area holds " + program_area);
+        }
+    }
+
+    private void copy_rom_to_memory(byte[] rom) {
+        this.PROGRAM_SIZE = rom.length;
+        if (START_OF_PROGRAM + rom.length > this.memory.length) {
+            this.memory = Arrays.copyOf(this.memory, MAX_MEMORY);
+        }
+        for (int i = 0; i < rom.length; i++) {
+            this.memory[START_OF_PROGRAM + i] = rom[i];
+        }
+    }
+
     private void load_fonts_to_memory() {
+        System.arraycopy(BIG_FONT, 0, this.memory, this.BIG_FONT_START, BIG_FONT.length);
+
         int font_start = this.FONT_START;
 
         // '0'
@@ -499,6 +1450,20 @@ public class Chip8 {
         this.memory[font_start] = (byte) 0x80;
     }
 
+    // SUPER-CHIP's 8x10 digits 0-9, 10 bytes each
+    private static final byte[] BIG_FONT = {
+        (byte) 0x3C, (byte) 0x7E, (byte) 0xE7, (byte) 0xC3, (byte) 0xC3, (byte) 0xC3, (byte) 0xC3, (byte) 0xE7, (byte) 0x7E, (byte) 0x3C,
+        (byte) 0x18, (byte) 0x38, (byte) 0x58, (byte) 0x18, (byte) 0x18, (byte) 0x18, (byte) 0x18, (byte) 0x18, (byte) 0x18, (byte) 0x3C,
+        (byte) 0x3E, (byte) 0x7F, (byte) 0xC3, (byte) 0x06, (byte) 0x0C, (byte) 0x18, (byte) 0x30, (byte) 0x60, (byte) 0xFF, (byte) 0xFF,
+        (byte) 0x3C, (byte) 0x7E, (byte) 0xC3, (byte) 0x03, (byte) 0x0E, (byte) 0x0E, (byte) 0x03, (byte) 0xC3, (byte) 0x7E, (byte) 0x3C,
+        (byte) 0x06, (byte) 0x0E, (byte) 0x1E, (byte) 0x36, (byte) 0x66, (byte) 0xC6, (byte) 0xFF, (byte) 0xFF, (byte) 0x06, (byte) 0x06,
+        (byte) 0xFF, (byte) 0xFF, (byte) 0xC0, (byte) 0xC0, (byte) 0xFC, (byte) 0xFE, (byte) 0x03, (byte) 0xC3, (byte) 0x7E, (byte) 0x3C,
+        (byte) 0x3E, (byte) 0x7C, (byte) 0xC0, (byte) 0xC0, (byte) 0xFC, (byte) 0xFE, (byte) 0xC3, (byte) 0xC3, (byte) 0x7E, (byte) 0x3C,
+        (byte) 0xFF, (byte) 0xFF, (byte) 0x03, (byte) 0x03, (byte) 0x06, (byte) 0x0C, (byte) 0x18, (byte) 0x18, (byte) 0x18, (byte) 0x18,
+        (byte) 0x3C, (byte) 0x7E, (byte) 0xC3, (byte) 0xC3, (byte) 0x7E, (byte) 0x7E, (byte) 0xC3, (byte) 0xC3, (byte) 0x7E, (byte) 0x3C,
+        (byte) 0x3C, (byte) 0x7E, (byte) 0xC3, (byte) 0xC3, (byte) 0x7F, (byte) 0x3F, (byte) 0x03, (byte) 0x03, (byte) 0x3E, (byte) 0x7C,
+    };
+
     /**
      */
     private void print_memory_values() {
@@ -0,0 +1,14 @@
+package com.willtkelly;
+
+/**
+ * A straight-line run of instructions compiled to JVM bytecode by
+ * BlockCompiler. Implementations are generated at runtime.
+ */
+interface CompiledBlock {
+
+    /**
+     * Runs the block against the V registers and memory, given the current
+     * value of I. Returns the new value of I.
+     */
+    int run(byte[] v, byte[] memory, int i);
+}
@@ -0,0 +1,227 @@
+package com.willtkelly;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs the CPU on its own thread, paced against absolute 60 Hz deadlines
+ * with parkNanos instead of being driven by render calls, so vsync, a slow
+ * frame or an unfocused window don't change the emulated speed. Every frame
+ * is published through a FrameExchange for the renderer to pick up.
+ *
+ * Save states, rewinding and input recording touch the whole machine, so
+ * the render thread only asks for them through flags and they happen here
+ * between frames. The keyboard is sampled here too, once a frame, and the
+ * chip reads that sample instead of the live keys, so a recording holds
+ * exactly what the program saw.
+ */
+public class CpuThread implements Runnable {
+
+    private static final long FRAME_NANOS = 1_000_000_000L / Scheduler.TIMER_HZ;
+
+    // Further behind than this and the missed frames are dropped rather
+    // than run back to back
+    private static final long MAX_LAG_NANOS = 250_000_000L;
+
+    private static final int SAVE_STATE = 1;
+    private static final int LOAD_STATE = 2;
+
+    private final Chip8 chip;
+    private final Scheduler scheduler;
+    private final Keyboard keyboard;
+    private final FrameExchange frames;
+    private final HeadlessInput input = new HeadlessInput();
+
+    private final SaveState quick_save = new SaveState();
+    private RewindBuffer rewind;
+    private InputRecorder recorder;
+
+    private final AtomicInteger commands = new AtomicInteger();
+    private volatile boolean rewinding = false;
+    private volatile boolean fast_forward = false;
+    private int speed = 1;
+    private int turbo_speed = Scheduler.MAX_SPEED;
+    private volatile boolean running = false;
+    private Thread thread;
+
+    public CpuThread(Chip8 chip, Scheduler scheduler, Keyboard keyboard, FrameExchange frames) {
+        this.chip = chip;
+        this.scheduler = scheduler;
+        this.keyboard = keyboard;
+        this.frames = frames;
+        chip.setInput(this.input);
+    }
+
+    public void setRewindBuffer(RewindBuffer rewind) {
+        this.rewind = rewind;
+    }
+
+    public void setRecorder(InputRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    /**
+     * Speed to run at normally, as for Scheduler.setSpeed.
+     */
+    public void setSpeed(int speed) {
+        this.speed = speed;
+    }
+
+    /**
+     * Speed to run at while fast forwarding.
+     */
+    public void setTurboSpeed(int turbo_speed) {
+        this.turbo_speed = turbo_speed;
+    }
+
+    /**
+     * Starts running, on a virtual thread if virtual is set.
+     */
+    public void start(boolean virtual) {
+        this.running = true;
+        Thread.Builder builder = virtual ? Thread.ofVirtual() : Thread.ofPlatform().daemon();
+        this.thread = builder.name("cpu").start(this);
+    }
+
+    /**
+     * Stops the thread and waits for it, closing any input recording.
+     */
+    public void stop() {
+        if (this.thread == null) return;
+
+        this.running = false;
+        LockSupport.unpark(this.thread);
+        try {
+            this.thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        this.thread = null;
+    }
+
+    public void requestSaveState() {
+        this.commands.getAndAccumulate(SAVE_STATE, (flags, flag) -> flags | flag);
+    }
+
+    public void requestLoadState() {
+        this.commands.getAndAccumulate(LOAD_STATE, (flags, flag) -> flags | flag);
+    }
+
+    /**
+     * While set the CPU stays paused and winds back a frame per frame.
+     */
+    public void setRewinding(boolean rewinding) {
+        this.rewinding = rewinding;
+    }
+
+    /**
+     * While set the CPU runs at the turbo speed. Only the newest frame is
+     * ever shown, so the ones in between are never even copied out.
+     */
+    public void setFastForward(boolean fast_forward) {
+        this.fast_forward = fast_forward;
+    }
+
+    @Override
+    public void run() {
+        long last = System.nanoTime();
+        long deadline = last;
+
+        while (this.running) {
+            long now = System.nanoTime();
+            run_commands();
+
+            if (this.rewind != null && this.rewinding) {
+                if (this.rewind.rewind(this.chip)) stop_recording("the session was rewound");
+            } else {
+                sample_input();
+                this.scheduler.setSpeed(this.fast_forward ? this.turbo_speed : this.speed);
+                this.scheduler.update((now - last) / 1e9f);
+                if (this.rewind != null) {
+                    this.rewind.record(this.chip);
+                }
+            }
+            last = now;
+            this.frames.publish(this.chip.getFrameBuffer(), this.scheduler.getCycles(), this.scheduler.getTimerTicks());
+
+            // Uncapped runs a fixed slice of wall time per update already,
+            // unless the program stalled and can wait for the next frame
+            if (this.scheduler.isUncapped() && !this.scheduler.isStalled()) {
+                deadline = System.nanoTime();
+                continue;
+            }
+
+            deadline += FRAME_NANOS;
+            long wait = deadline - System.nanoTime();
+            if (wait < -MAX_LAG_NANOS) {
+                deadline = System.nanoTime();
+            }
+            // Parking can return early, so park again until the deadline
+            while (wait > 0 && this.running) {
+                LockSupport.parkNanos(wait);
+                wait = deadline - System.nanoTime();
+            }
+        }
+
+        if (this.recorder != null) {
+            finish_recording();
+        }
+    }
+
+    private void run_commands() {
+        if (this.commands.get() == 0) return;
+
+        int commands = this.commands.getAndSet(0);
+        if ((commands & SAVE_STATE) != 0) {
+            this.quick_save.capture(this.chip);
+            System.out.println("State saved");
+        } else if ((commands & LOAD_STATE) != 0) {
+            boolean loaded = this.quick_save.restore(this.chip);
+            System.out.println(loaded ? "State loaded" : "No state saved");
+            if (loaded) stop_recording("a state was loaded");
+        }
+    }
+
+    private void sample_input() {
+        // A key tapped since the last frame is pressed then released at the
+        // same cycle, so the program still sees the release
+        int mask = this.keyboard.getKeyMask();
+        int tapped = this.keyboard.takePressedKeys() & ~mask;
+        if (tapped != 0) {
+            this.input.setKeyMask(mask | tapped);
+        }
+        this.input.setKeyMask(mask);
+
+        if (this.recorder == null) return;
+
+        long cycle = this.scheduler.getCycles();
+        try {
+            if (tapped != 0) {
+                this.recorder.record(cycle, mask | tapped);
+            }
+            this.recorder.record(cycle, mask);
+        } catch (IOException e) {
+            System.err.println("Input recording failed: " + e.getMessage());
+            this.recorder = null;
+        }
+    }
+
+    // A replay only follows one unbroken run, so jumping to another state
+    // ends the log where it is
+    private void stop_recording(String reason) {
+        if (this.recorder == null) return;
+
+        System.out.println("Input recording stopped, " + reason);
+        finish_recording();
+    }
+
+    private void finish_recording() {
+        try {
+            this.recorder.finish(this.scheduler.getCycles());
+        } catch (IOException e) {
+            System.err.println("Input recording failed: " + e.getMessage());
+        }
+        this.recorder = null;
+    }
+}
@@ -0,0 +1,22 @@
+package com.willtkelly;
+
+/**
+ * How Chip8 gets from an opcode to the code that runs it.
+ */
+public enum DispatchMode {
+    /** The original if/else decoder, kept for comparison. */
+    LEGACY,
+    /** One lookup in a precomputed table of all 65536 opcodes. */
+    TABLE,
+    /** Table dispatch, with decoded instructions cached per address. */
+    CACHED,
+    /**
+     * CACHED, plus hot straight-line blocks compiled to JVM bytecode. Every
+     * other mode is interpreter-only, for checking the compiled code against.
+     */
+    JIT;
+
+    public static DispatchMode parse(String value) {
+        return DispatchMode.valueOf(value.toUpperCase());
+    }
+}
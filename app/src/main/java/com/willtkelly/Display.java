@@ -2,73 +2,197 @@ package com.willtkelly;
 
 import com.badlogic.gdx.ApplicationAdapter;
 import com.badlogic.gdx.Gdx;
-import com.badlogic.gdx.graphics.glutils.ShapeRenderer;
 import org.lwjgl.opengl.GL20;
 
 public class Display extends ApplicationAdapter {
 
     private Chip8 chip;
-    private int rows = 32;
-    private int pixles_per_bytes = 8;
+    private Keyboard keyboard;
+    private Scheduler scheduler;
     private int scale = 10;
+    private RenderMode render_mode = RenderMode.TEXTURE;
 
     private float fpsTimer = 0f;
-
-    ShapeRenderer shapeRenderer;
+    private final Metrics metrics = new Metrics();
+    private MetricsOverlay overlay;
+    private boolean show_overlay = false;
+
+    private final FrameExchange frames = new FrameExchange();
+    private FrameExchange.Frame current; // Front frame, owned until the next take
+    private CpuThread cpu;
+    private boolean virtual_thread = false;
+    private int speed = 1;
+    private int turbo_speed = Scheduler.MAX_SPEED;
+    private RewindBuffer rewind;
+    private InputRecorder recorder;
+    private Profiler profiler;
+    private String profile_target;
+    private boolean sound = true;
+    private AudioSink beeper;
+
+    FrameRenderer renderer;
 
     public void setChip(Chip8 chip) {
         this.chip = chip;
     }
 
+    public void setKeyboard(Keyboard keyboard) {
+        this.keyboard = keyboard;
+    }
+
+    public void setScheduler(Scheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    public void setRewindBuffer(RewindBuffer rewind) {
+        this.rewind = rewind;
+    }
+
+    public void setRecorder(InputRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    /**
+     * Speed multiplier to run at normally, and while tab is held, as for
+     * Scheduler.setSpeed.
+     */
+    public void setSpeed(int speed, int turbo_speed) {
+        this.speed = speed;
+        this.turbo_speed = turbo_speed;
+    }
+
+    /**
+     * Runs the CPU on a virtual thread rather than a platform one.
+     */
+    public void setVirtualThread(boolean virtual_thread) {
+        this.virtual_thread = virtual_thread;
+    }
+
+    /**
+     * Dumps profiler on exit, as text to stdout when target is "true" or as
+     * CSV to the file it names.
+     */
+    public void setProfiler(Profiler profiler, String target) {
+        this.profiler = profiler;
+        this.profile_target = target;
+    }
+
+    public Metrics getMetrics() {
+        return this.metrics;
+    }
+
+    public void setSoundEnabled(boolean sound) {
+        this.sound = sound;
+    }
+
+    public void setOverlayVisible(boolean show_overlay) {
+        this.show_overlay = show_overlay;
+    }
+
+    public void setScale(int scale) {
+        this.scale = scale;
+    }
+
+    public void setRenderMode(RenderMode render_mode) {
+        this.render_mode = render_mode;
+    }
+
     @Override
     public void create() {
         // Initialization code
-        this.shapeRenderer = new ShapeRenderer();
+        if (this.render_mode == RenderMode.SHAPE) {
+            this.renderer = new ShapeFrameRenderer(this.scale);
+        } else {
+            this.renderer = new TextureFrameRenderer(this.scale);
+        }
+        this.overlay = new MetricsOverlay();
+        Gdx.input.setInputProcessor(this.keyboard);
+
+        // Needs the audio backend, which only exists once the app is up
+        if (this.sound) {
+            this.beeper = new GdxBeeper();
+            this.chip.setAudio(this.beeper);
+        }
+
+        // Last, nothing else may touch the chip once the CPU thread is up
+        this.cpu = new CpuThread(this.chip, this.scheduler, this.keyboard, this.frames);
+        this.cpu.setRewindBuffer(this.rewind);
+        this.cpu.setRecorder(this.recorder);
+        this.cpu.setSpeed(this.speed);
+        this.cpu.setTurboSpeed(this.turbo_speed);
+        this.cpu.start(this.virtual_thread);
         System.out.println("Display Created!");
     }
 
     @Override
     public void render() {
         // Rendering code
-        fpsTimer += Gdx.graphics.getDeltaTime();
+        float delta = Gdx.graphics.getDeltaTime();
+        fpsTimer += delta;
 
         if (fpsTimer >= 5f) {
-            System.out.println("FPS: " + Gdx.graphics.getFramesPerSecond());
+            System.out.println("FPS: " + Gdx.graphics.getFramesPerSecond() + ", " + metrics.summary());
             fpsTimer = 0f;
         }
 
-        chip.step();
-        draw(chip.getScreen());
-    }
-
-    private void draw(byte[][] screen) {
-        Gdx.gl.glClearColor(0, 0, 0, 1);
-        Gdx.gl.glClear(GL20.GL_COLOR_BUFFER_BIT);
+        // The keypad arrives as events before render, only hotkeys are polled
+        if (keyboard.isEscapePressed()) {
+            Gdx.app.exit();
+            return;
+        }
 
-        shapeRenderer.begin(ShapeRenderer.ShapeType.Filled);
+        if (keyboard.isOverlayPressed()) {
+            show_overlay = !show_overlay;
+        }
 
-        // Drawing commands here
-        shapeRenderer.setColor(1, 1, 1, 1); // White colour
+        // The CPU thread owns the machine, it acts on these between frames
+        if (keyboard.isSaveStatePressed()) {
+            cpu.requestSaveState();
+        } else if (keyboard.isLoadStatePressed()) {
+            cpu.requestLoadState();
+        }
+        cpu.setRewinding(keyboard.isRewindPressed());
+        cpu.setFastForward(keyboard.isFastForwardPressed());
+
+        // However fast the CPU runs, only the newest frame is drawn. Only
+        // the rows that changed since the last frame taken get
+        // converted and uploaded again, a static frame costs just the draw
+        long dirty_rows = 0;
+        FrameExchange.Frame frame = frames.take();
+        if (frame != null) {
+            this.current = frame;
+            dirty_rows = frame.getDirtyRows();
+        }
+        if (this.current == null) return;
 
-        for (int row = 0; row < this.rows; row++) {
-            for (int xByte = 0; xByte < 8; xByte++) {
-                int b = screen[row][xByte] & 0xFF;
+        metrics.frame(System.nanoTime(), current.getCycles(), current.getTimerTicks());
+        draw(current.getFrameBuffer(), dirty_rows);
 
-                for (int bit = 7; bit >=0; bit--) {
-                    if(((b >> bit) & 1) == 1) {
-                        int x = (xByte * 8 + (7 - bit)) * this.scale;
-                        int y = (this.rows - 1 -row) * this.scale; // Flip as libgdx is bottom-left
-                        shapeRenderer.rect(x, y, this.scale, this.scale);
-                    }
-                }
-            }
+        if (show_overlay) {
+            overlay.draw(metrics, delta, Gdx.graphics.getHeight());
         }
+    }
 
-        shapeRenderer.end();
+    private void draw(FrameBuffer frame, long dirty_rows) {
+        Gdx.gl.glClearColor(0, 0, 0, 1);
+        Gdx.gl.glClear(GL20.GL_COLOR_BUFFER_BIT);
+
+        this.renderer.draw(frame, dirty_rows);
     }
 
     @Override
     public void dispose() {
+        // Closes the input recording too
+        cpu.stop();
+        if (profiler != null) {
+            HeadlessApp.dump_profile(profiler, profile_target);
+        }
+        if (beeper != null) {
+            chip.setAudio(new NullAudioSink());
+            beeper.close();
+        }
+        this.renderer.dispose();
+        this.overlay.dispose();
         System.out.println("Display Closed!");
     }
 }
@@ -0,0 +1,306 @@
+package com.willtkelly;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The display: up to two bitplanes of 64x32 pixels, or 128x64 in the
+ * SUPER-CHIP high resolution mode. Each row is one 64-bit word, or two in
+ * high resolution, with the most significant bit as the leftmost pixel, so
+ * sprites and scrolls move whole words rather than single pixels.
+ *
+ * A pixel's colour is its bit in plane 0 plus twice its bit in plane 1.
+ * Plain CHIP-8 and SUPER-CHIP only ever draw to plane 0.
+ */
+public class FrameBuffer {
+
+    public static final int PLANES = 2;
+    public static final int LORES_WIDTH = 64;
+    public static final int LORES_HEIGHT = 32;
+    public static final int HIRES_WIDTH = 128;
+    public static final int HIRES_HEIGHT = 64;
+
+    private static final int MAX_WORDS = HIRES_HEIGHT * 2;
+
+    public static final int SERIALIZED_SIZE = 1 + PLANES * MAX_WORDS * 8;
+
+    private final long[][] planes = new long[PLANES][MAX_WORDS];
+    private boolean hires = false;
+    private int width = LORES_WIDTH;
+    private int height = LORES_HEIGHT;
+    private int words = 1; // Per row
+
+    // Bumped on every change, with a bit per row changed since the renderer
+    // last took them, so unchanged frames can be skipped
+    private long version = 0;
+    private long dirty_rows = 0;
+
+    public int getWidth() {
+        return this.width;
+    }
+
+    public int getHeight() {
+        return this.height;
+    }
+
+    public boolean isHires() {
+        return this.hires;
+    }
+
+    /**
+     * Words per row, 1 in low resolution and 2 in high.
+     */
+    public int getWordsPerRow() {
+        return this.words;
+    }
+
+    /**
+     * The live words of one plane, row y's being y * getWordsPerRow()
+     * onwards. Only the first getHeight() rows are in use.
+     */
+    public long[] getPlane(int plane) {
+        return this.planes[plane];
+    }
+
+    /**
+     * The colour at x, y, 0 to 3.
+     */
+    public int getPixel(int x, int y) {
+        int index = y * this.words + (x >> 6);
+        long bit = Long.MIN_VALUE >>> (x & 63);
+        int color = 0;
+        for (int p = 0; p < PLANES; p++) {
+            if ((this.planes[p][index] & bit) != 0) color |= 1 << p;
+        }
+        return color;
+    }
+
+    /**
+     * True if anything is lit in the given plane.
+     */
+    public boolean isPlaneUsed(int plane) {
+        long[] words = this.planes[plane];
+        for (int i = 0; i < this.height * this.words; i++) {
+            if (words[i] != 0) return true;
+        }
+        return false;
+    }
+
+    public long getVersion() {
+        return this.version;
+    }
+
+    /**
+     * Returns a mask of the rows changed since the last call, bit n being
+     * row n, and clears it.
+     */
+    public long takeDirtyRows() {
+        long dirty = this.dirty_rows;
+        this.dirty_rows = 0;
+        return dirty;
+    }
+
+    void clear(int plane_mask) {
+        for (int p = 0; p < PLANES; p++) {
+            if ((plane_mask & (1 << p)) != 0) {
+                Arrays.fill(this.planes[p], 0L);
+            }
+        }
+        changed_all();
+    }
+
+    /**
+     * Switches resolution, which clears every plane.
+     */
+    void setHires(boolean hires) {
+        this.hires = hires;
+        this.width = hires ? HIRES_WIDTH : LORES_WIDTH;
+        this.height = hires ? HIRES_HEIGHT : LORES_HEIGHT;
+        this.words = hires ? 2 : 1;
+        clear(-1);
+    }
+
+    /**
+     * XORs a sprite into plane at x, y: height rows of 8 pixels, or of 16 if
+     * wide, read from memory at address. Reads wrap at address_mask. The
+     * sprite either wraps around the edges or is cut off at them. Returns
+     * true if it turned off any lit pixel.
+     */
+    boolean drawSprite(int plane, byte[] memory, int address, int address_mask,
+                       int x, int y, int height, boolean wide, boolean clip) {
+        long[] words = this.planes[plane];
+        long collision = 0;
+
+        for (int row = 0; row < height; row++) {
+            int py = y + row;
+            if (py >= this.height) {
+                if (clip) break;
+                py -= this.height;
+            }
+
+            // The sprite row left aligned in a word
+            long bits;
+            if (wide) {
+                int high = memory[(address + 2 * row) & address_mask] & 0xFF;
+                int low = memory[(address + 2 * row + 1) & address_mask] & 0xFF;
+                bits = (long) (high << 8 | low) << 48;
+            } else {
+                bits = (long) (memory[(address + row) & address_mask] & 0xFF) << 56;
+            }
+            if (bits == 0) continue;
+
+            int index = py * this.words;
+            if (this.words == 1) {
+                // Rotating wraps it around the right edge, shifting drops
+                // what falls off
+                long shifted = clip ? bits >>> x : Long.rotateRight(bits, x);
+                collision |= words[index] & shifted;
+                words[index] ^= shifted;
+            } else {
+                // The same across a 128-bit row held as a high and low word
+                long high;
+                long low;
+                if (x < 64) {
+                    high = bits >>> x;
+                    low = x == 0 ? 0 : bits << (64 - x);
+                } else {
+                    high = 0;
+                    low = bits >>> (x - 64);
+                }
+                if (!clip) {
+                    // What fell off the low word comes back in at the left
+                    long spill = x <= 64 ? 0 : bits << (128 - x);
+                    high |= spill;
+                }
+                collision |= (words[index] & high) | (words[index + 1] & low);
+                words[index] ^= high;
+                words[index + 1] ^= low;
+            }
+            this.dirty_rows |= 1L << py;
+        }
+
+        this.version++;
+        return collision != 0;
+    }
+
+    /**
+     * Moves the selected planes down n rows, blank rows coming in at the top.
+     */
+    void scrollDown(int n, int plane_mask) {
+        n = Math.min(n, this.height);
+        int shift = n * this.words;
+        int used = this.height * this.words;
+
+        for (int p = 0; p < PLANES; p++) {
+            if ((plane_mask & (1 << p)) == 0) continue;
+            long[] words = this.planes[p];
+            System.arraycopy(words, 0, words, shift, used - shift);
+            Arrays.fill(words, 0, shift, 0L);
+        }
+        changed_all();
+    }
+
+    /**
+     * Moves the selected planes up n rows, blank rows coming in at the bottom.
+     */
+    void scrollUp(int n, int plane_mask) {
+        n = Math.min(n, this.height);
+        int shift = n * this.words;
+        int used = this.height * this.words;
+
+        for (int p = 0; p < PLANES; p++) {
+            if ((plane_mask & (1 << p)) == 0) continue;
+            long[] words = this.planes[p];
+            System.arraycopy(words, shift, words, 0, used - shift);
+            Arrays.fill(words, used - shift, used, 0L);
+        }
+        changed_all();
+    }
+
+    /**
+     * Moves the selected planes right n pixels, n below 64.
+     */
+    void scrollRight(int n, int plane_mask) {
+        for (int p = 0; p < PLANES; p++) {
+            if ((plane_mask & (1 << p)) == 0) continue;
+            long[] words = this.planes[p];
+
+            if (this.words == 1) {
+                for (int y = 0; y < this.height; y++) {
+                    words[y] >>>= n;
+                }
+            } else {
+                for (int i = 0; i < this.height * 2; i += 2) {
+                    words[i + 1] = (words[i + 1] >>> n) | (words[i] << (64 - n));
+                    words[i] >>>= n;
+                }
+            }
+        }
+        changed_all();
+    }
+
+    /**
+     * Moves the selected planes left n pixels, n below 64.
+     */
+    void scrollLeft(int n, int plane_mask) {
+        for (int p = 0; p < PLANES; p++) {
+            if ((plane_mask & (1 << p)) == 0) continue;
+            long[] words = this.planes[p];
+
+            if (this.words == 1) {
+                for (int y = 0; y < this.height; y++) {
+                    words[y] <<= n;
+                }
+            } else {
+                for (int i = 0; i < this.height * 2; i += 2) {
+                    words[i] = (words[i] << n) | (words[i + 1] >>> (64 - n));
+                    words[i + 1] <<= n;
+                }
+            }
+        }
+        changed_all();
+    }
+
+    /**
+     * Makes this an exact copy of other, leaving its own dirty rows alone.
+     */
+    void copyFrom(FrameBuffer other) {
+        this.hires = other.hires;
+        this.width = other.width;
+        this.height = other.height;
+        this.words = other.words;
+        for (int p = 0; p < PLANES; p++) {
+            System.arraycopy(other.planes[p], 0, this.planes[p], 0, MAX_WORDS);
+        }
+        this.version = other.version;
+    }
+
+    private void changed_all() {
+        this.dirty_rows = -1L;
+        this.version++;
+    }
+
+    public void writeTo(ByteBuffer out) {
+        out.put((byte) (this.hires ? 1 : 0));
+        for (long[] words : this.planes) {
+            for (long word : words) {
+                out.putLong(word);
+            }
+        }
+    }
+
+    public void readFrom(ByteBuffer in) {
+        boolean hires = in.get() != 0;
+        this.hires = hires;
+        this.width = hires ? HIRES_WIDTH : LORES_WIDTH;
+        this.height = hires ? HIRES_HEIGHT : LORES_HEIGHT;
+        this.words = hires ? 2 : 1;
+
+        for (long[] words : this.planes) {
+            for (int i = 0; i < words.length; i++) {
+                words[i] = in.getLong();
+            }
+        }
+        changed_all();
+    }
+}
@@ -0,0 +1,112 @@
+package com.willtkelly;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands finished frames from the CPU thread to the render thread without
+ * either side ever waiting on the other.
+ *
+ * A triple buffer: the CPU copies each frame into its back slot and swaps
+ * it with the middle one, the renderer swaps the middle slot with its front
+ * one when a newer frame is there. The middle index and a "new frame" bit
+ * share one AtomicInteger, so each swap is a single getAndSet and neither
+ * side can see a slot the other is writing. Frames the renderer is too slow
+ * for are simply overwritten.
+ */
+public class FrameExchange {
+
+    private static final int FRESH = 4;
+    private static final int INDEX = 3;
+
+    /**
+     * One published frame, with the scheduler's totals at the point it was
+     * taken.
+     */
+    public static class Frame {
+
+        private final FrameBuffer frame = new FrameBuffer();
+        private long cycles;
+        private long timer_ticks;
+        private long dirty_rows;
+
+        public FrameBuffer getFrameBuffer() {
+            return this.frame;
+        }
+
+        public long getCycles() {
+            return this.cycles;
+        }
+
+        public long getTimerTicks() {
+            return this.timer_ticks;
+        }
+
+        /**
+         * Rows that differ from the frame take returned before this one,
+         * bit n being row n.
+         */
+        public long getDirtyRows() {
+            return this.dirty_rows;
+        }
+    }
+
+    private final Frame[] slots = { new Frame(), new Frame(), new Frame() };
+    private final AtomicInteger middle = new AtomicInteger(1);
+    private int back = 0;  // CPU thread only
+    private int front = 2; // Render thread only
+
+    // Copy of the last frame taken, since the slot itself goes back to the
+    // CPU, for working out which rows the next one changed
+    private final FrameBuffer shown = new FrameBuffer();
+    private boolean shown_any = false;
+
+    /**
+     * Copies frame out as the newest one. CPU thread only.
+     */
+    public void publish(FrameBuffer frame, long cycles, long timer_ticks) {
+        Frame slot = this.slots[this.back];
+        slot.frame.copyFrom(frame);
+        slot.cycles = cycles;
+        slot.timer_ticks = timer_ticks;
+
+        this.back = this.middle.getAndSet(this.back | FRESH) & INDEX;
+    }
+
+    /**
+     * Returns the newest frame, or null if nothing was published since the
+     * last call. The frame stays untouched until the next call. Render
+     * thread only.
+     */
+    public Frame take() {
+        if ((this.middle.get() & FRESH) == 0) {
+            return null;
+        }
+
+        this.front = this.middle.getAndSet(this.front) & INDEX;
+        Frame slot = this.slots[this.front];
+        slot.dirty_rows = this.shown_any ? changed_rows(this.shown, slot.frame) : -1L;
+        this.shown.copyFrom(slot.frame);
+        this.shown_any = true;
+        return slot;
+    }
+
+    private static long changed_rows(FrameBuffer before, FrameBuffer after) {
+        if (before.isHires() != after.isHires()) {
+            return -1L;
+        }
+
+        int words = after.getWordsPerRow();
+        long dirty = 0;
+        for (int p = 0; p < FrameBuffer.PLANES; p++) {
+            long[] a = before.getPlane(p);
+            long[] b = after.getPlane(p);
+            for (int y = 0; y < after.getHeight(); y++) {
+                int i = y * words;
+                if (a[i] != b[i] || (words == 2 && a[i + 1] != b[i + 1])) {
+                    dirty |= 1L << y;
+                }
+            }
+        }
+        return dirty;
+    }
+}
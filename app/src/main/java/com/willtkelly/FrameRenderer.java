@@ -0,0 +1,23 @@
+package com.willtkelly;
+
+/**
+ * Draws a framebuffer with libGDX. Created and used on the render thread
+ * only, after the GL context exists.
+ */
+interface FrameRenderer {
+
+    /**
+     * RGBA8888 for each pixel colour. Plane 0 alone is white, as plain
+     * CHIP-8 always was, the other plane and the overlap are greys.
+     */
+    int[] PALETTE = { 0x000000FF, 0xFFFFFFFF, 0xAAAAAAFF, 0x555555FF };
+
+    /**
+     * Draws the frame, filling the window whatever its resolution. dirty_rows
+     * has a bit set for each row changed since the last call, renderers that
+     * keep the previous frame around only need to update those.
+     */
+    void draw(FrameBuffer frame, long dirty_rows);
+
+    void dispose();
+}
@@ -0,0 +1,12 @@
+package com.willtkelly;
+
+/**
+ * Receives the framebuffer once a frame has been emulated.
+ */
+public interface FrameSink {
+
+    /**
+     * frame is the live display, see FrameBuffer for its layout.
+     */
+    void present(FrameBuffer frame);
+}
@@ -0,0 +1,141 @@
+package com.willtkelly;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.audio.AudioDevice;
+
+/**
+ * Plays the sound timer through a libGDX AudioDevice on a thread of its own.
+ *
+ * Each tick from the CPU goes into a preallocated single producer, single
+ * consumer ring, one slot per 1/60 s with the pattern packed into two longs,
+ * so tick only copies a few words and never waits. The audio thread turns
+ * each slot into a square wave, one tick's worth of samples at a time, and
+ * is paced by the device blocking on write.
+ *
+ * Playback starts PREBUFFER_TICKS behind the CPU to soak up frame jitter.
+ * If the ring runs dry (the CPU is paused, or behind) it plays silence and
+ * buffers up again; if it fills (the CPU is ahead) new ticks are dropped.
+ */
+public class GdxBeeper implements AudioSink, Runnable {
+
+    static final int SAMPLE_RATE = 44100;
+    static final int SAMPLES_PER_TICK = SAMPLE_RATE / 60;
+
+    private static final int RING_SIZE = 8; // Power of two
+    private static final int PREBUFFER_TICKS = 2;
+    private static final short AMPLITUDE = 6000;
+
+    // Ring slots, written by tick() and read by the audio thread
+    private final long[] pattern_high = new long[RING_SIZE];
+    private final long[] pattern_low = new long[RING_SIZE];
+    private final int[] pitches = new int[RING_SIZE]; // -1 for silence
+
+    // Only the CPU thread writes head and only the audio thread writes tail.
+    // The volatile write of head publishes the slot written before it
+    private volatile long head = 0;
+    private volatile long tail = 0;
+
+    private final AudioDevice device;
+    private final short[] samples = new short[SAMPLES_PER_TICK];
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    private double phase = 0; // Position in the pattern, in bits
+
+    public GdxBeeper() {
+        this.device = Gdx.audio.newAudioDevice(SAMPLE_RATE, true);
+        this.thread = new Thread(this, "beeper");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    @Override
+    public void tick(boolean sound_on, byte[] pattern, int pitch) {
+        long head = this.head;
+        if (head - this.tail == RING_SIZE) {
+            return; // Full
+        }
+
+        int slot = (int) (head & (RING_SIZE - 1));
+        if (sound_on) {
+            this.pattern_high[slot] = pack(pattern, 0);
+            this.pattern_low[slot] = pack(pattern, 8);
+            this.pitches[slot] = pitch;
+        } else {
+            this.pitches[slot] = -1;
+        }
+        this.head = head + 1;
+    }
+
+    private static long pack(byte[] pattern, int from) {
+        long bits = 0;
+        for (int i = from; i < from + 8; i++) {
+            bits = bits << 8 | (pattern[i] & 0xFF);
+        }
+        return bits;
+    }
+
+    @Override
+    public void run() {
+        boolean buffering = true;
+
+        while (this.running) {
+            long tail = this.tail;
+            long available = this.head - tail;
+
+            if (buffering && available >= PREBUFFER_TICKS) {
+                buffering = false;
+            }
+            if (buffering || available == 0) {
+                buffering = true;
+                silence();
+            } else {
+                int slot = (int) (tail & (RING_SIZE - 1));
+                if (this.pitches[slot] < 0) {
+                    silence();
+                } else {
+                    square(this.pattern_high[slot], this.pattern_low[slot], this.pitches[slot]);
+                }
+                this.tail = tail + 1;
+            }
+
+            // Blocks until the device has room, which paces the thread
+            this.device.writeSamples(this.samples, 0, SAMPLES_PER_TICK);
+        }
+
+        this.device.dispose();
+    }
+
+    private void silence() {
+        for (int i = 0; i < SAMPLES_PER_TICK; i++) {
+            this.samples[i] = 0;
+        }
+        this.phase = 0;
+    }
+
+    private void square(long high, long low, int pitch) {
+        double step = 4000 * Math.pow(2, (pitch - 64) / 48.0) / SAMPLE_RATE;
+        double phase = this.phase;
+
+        for (int i = 0; i < SAMPLES_PER_TICK; i++) {
+            int bit = (int) phase & 127;
+            long word = bit < 64 ? high : low;
+            boolean set = (word << (bit & 63)) < 0;
+            this.samples[i] = set ? AMPLITUDE : -AMPLITUDE;
+
+            phase += step;
+            if (phase >= 128) phase -= 128;
+        }
+        this.phase = phase;
+    }
+
+    @Override
+    public void close() {
+        this.running = false;
+        try {
+            this.thread.join(500);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
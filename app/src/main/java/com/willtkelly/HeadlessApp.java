@@ -0,0 +1,147 @@
+package com.willtkelly;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Runs a rom without a window or any libGDX classes, then prints the final
+ * framebuffer. Stops after --cycles instructions, or earlier if the program
+ * halts, jumps to itself, or waits for a key that will never come.
+ *
+ * With --replay the seed, clock and key presses come from an input log
+ * and the run lasts exactly as long as the recorded session did.
+ */
+public class HeadlessApp {
+
+    public static final long DEFAULT_CYCLES = 1_000_000L;
+
+    static final int PROFILE_TOP_ADDRESSES = 20;
+
+    public static void main(String[] args) {
+
+        Options options = Options.parse(args, "profile");
+
+        if (options.getRom() == null) {
+            System.out.println("Please include rom name... ( roms/[rom_name].ch8 [--cycles N] [--hz 700] [--dispatch table|cached|jit|legacy] [--quirks chip8|schip|xochip] [--seed N] [--input cycle:mask,...] [--replay file] [--profile[=csv file]] )");
+            return;
+        }
+
+        String rom = options.getRom();
+        long max_cycles = options.getLong("cycles", DEFAULT_CYCLES);
+        int clock_hz = Scheduler.parseClockHz(options.get("hz", String.valueOf(Scheduler.DEFAULT_CLOCK_HZ)));
+
+        // Headless runs always go flat out, the clock only sets how many
+        // instructions make up one 60 Hz timer tick
+        if (clock_hz == Scheduler.UNLIMITED) {
+            clock_hz = Scheduler.DEFAULT_CLOCK_HZ;
+        }
+
+        long seed = options.getLong("seed", System.nanoTime());
+        InputScript script = InputScript.parse(options.get("input", null));
+
+        if (options.has("replay")) {
+            InputReplay replay;
+            try {
+                replay = InputReplay.load(Path.of(options.get("replay", "")));
+            } catch (IOException e) {
+                System.err.println(e.getMessage());
+                return;
+            }
+
+            seed = replay.getSeed();
+            clock_hz = replay.getClockHz();
+            script = replay.getScript();
+            max_cycles = options.getLong("cycles", replay.getLength());
+        }
+
+        Chip8 chip = new Chip8(rom);
+        try {
+            chip.setQuirks(QuirkProfile.parse(options.get("quirks", "chip8")));
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            return;
+        }
+        chip.setDispatchMode(DispatchMode.parse(options.get("dispatch", "table")));
+        chip.setSeed(seed);
+        HeadlessInput input = new HeadlessInput();
+        chip.setInput(input);
+        Scheduler scheduler = new Scheduler(chip, clock_hz);
+
+        Profiler profiler = null;
+        if (options.has("profile")) {
+            profiler = new Profiler(chip.getMemorySize());
+            chip.setProfiler(profiler);
+        }
+
+        long start = System.nanoTime();
+        long cycles = run(chip, scheduler, input, script, max_cycles);
+        long elapsed = System.nanoTime() - start;
+
+        new TextFrameSink(System.out).present(chip.getFrameBuffer());
+
+        System.out.printf("Cycles: %d, Time: %.3f ms, Cycles/sec: %.0f, Screen hash: %016x%n",
+                cycles, elapsed / 1e6, cycles / (elapsed / 1e9), BatchRunner.hash(chip.getFrameBuffer()));
+
+        if (profiler != null) {
+            dump_profile(profiler, options.get("profile", "true"));
+        }
+    }
+
+    /**
+     * Prints the profile, or writes it as CSV when given a file name.
+     */
+    static void dump_profile(Profiler profiler, String target) {
+        if (target.equals("true")) {
+            System.out.println();
+            profiler.printReport(System.out, PROFILE_TOP_ADDRESSES);
+            return;
+        }
+
+        try {
+            profiler.writeCsv(Path.of(target));
+            System.out.println("Profile written to " + target);
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+        }
+    }
+
+    /**
+     * Runs the chip with the keys given by script, switching the mask held
+     * by input at each entry's cycle. Only stops short of max_cycles once
+     * the script is used up and the program can make no more progress.
+     * Returns the number of cycles executed.
+     */
+    public static long run(Chip8 chip, Scheduler scheduler, HeadlessInput input,
+                           InputScript script, long max_cycles) {
+        long cycles = 0;
+
+        for (int event = 0; event < script.size(); event++) {
+            long until = Math.min(max_cycles, script.getCycle(event));
+            if (until > cycles) {
+                scheduler.runCycles(until - cycles);
+                cycles = until;
+            }
+            input.setKeyMask(script.getMask(event));
+        }
+
+        return cycles + run(chip, scheduler, max_cycles - cycles);
+    }
+
+    /**
+     * Runs the chip until max_cycles or until it can make no more progress.
+     * Returns the number of cycles executed.
+     */
+    public static long run(Chip8 chip, Scheduler scheduler, long max_cycles) {
+        // Check for the end of the program once per emulated frame
+        long chunk = Math.max(1, scheduler.getClockHz() / Scheduler.TIMER_HZ);
+        long cycles = 0;
+
+        while (cycles < max_cycles && !chip.isFinished()) {
+            long n = Math.min(chunk, max_cycles - cycles);
+            scheduler.runCycles(n);
+            cycles += n;
+        }
+
+        return cycles;
+    }
+}
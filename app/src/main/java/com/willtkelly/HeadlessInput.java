@@ -0,0 +1,33 @@
+package com.willtkelly;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Input source for running without a window. Keys are set directly as a
+ * 16-bit mask, bit n being key n. Starts with no keys held. Safe to set
+ * from another thread than the one running the chip, as the session
+ * server does.
+ */
+public class HeadlessInput implements InputSource {
+
+    private final AtomicInteger key_mask = new AtomicInteger();
+    private final AtomicInteger released = new AtomicInteger();
+
+    public void setKeyMask(int key_mask) {
+        key_mask &= 0xFFFF;
+        int old = this.key_mask.getAndSet(key_mask);
+        if ((old & ~key_mask) != 0) {
+            this.released.getAndAccumulate(old & ~key_mask, (mask, bits) -> mask | bits);
+        }
+    }
+
+    @Override
+    public int getKeyMask() {
+        return this.key_mask.get();
+    }
+
+    @Override
+    public int takeReleasedKeys() {
+        return this.released.get() == 0 ? 0 : this.released.getAndSet(0);
+    }
+}
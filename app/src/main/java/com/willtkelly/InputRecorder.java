@@ -0,0 +1,69 @@
+package com.willtkelly;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Logs key state changes, stamped with the cycle they took effect at, so a
+ * session can be replayed exactly with InputReplay.
+ *
+ * The file starts with the seed and clock speed, followed by one entry per
+ * change: the cycles since the last entry as a varint, then the 16-bit key
+ * mask. A closing entry marks the cycle the session ended on.
+ */
+public class InputRecorder implements Closeable {
+
+    static final int MAGIC = 0x4338494E; // "C8IN"
+    static final short VERSION = 1;
+
+    private final DataOutputStream out;
+    private long last_cycle = 0;
+    private int last_mask = 0;
+
+    public InputRecorder(Path path, long seed, int clock_hz) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)));
+        this.out.writeInt(MAGIC);
+        this.out.writeShort(VERSION);
+        this.out.writeLong(seed);
+        this.out.writeInt(clock_hz);
+    }
+
+    /**
+     * Notes the keys held from cycle on. Only changes are written.
+     */
+    public void record(long cycle, int mask) throws IOException {
+        if (mask != this.last_mask) {
+            write_entry(cycle, mask);
+        }
+    }
+
+    /**
+     * Marks where the session ended and closes the file.
+     */
+    public void finish(long cycle) throws IOException {
+        write_entry(cycle, this.last_mask);
+        this.out.close();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.out.close();
+    }
+
+    private void write_entry(long cycle, int mask) throws IOException {
+        long delta = cycle - this.last_cycle;
+        while ((delta & ~0x7FL) != 0) {
+            this.out.writeByte((int) (delta & 0x7F) | 0x80);
+            delta >>>= 7;
+        }
+        this.out.writeByte((int) delta);
+        this.out.writeShort(mask);
+
+        this.last_cycle = cycle;
+        this.last_mask = mask;
+    }
+}
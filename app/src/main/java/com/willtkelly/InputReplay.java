@@ -0,0 +1,91 @@
+package com.willtkelly;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * An input log written by InputRecorder, read back as the seed and clock
+ * speed it was recorded with and the key changes as an InputScript.
+ */
+public class InputReplay {
+
+    private final long seed;
+    private final int clock_hz;
+    private final InputScript script;
+
+    private InputReplay(long seed, int clock_hz, InputScript script) {
+        this.seed = seed;
+        this.clock_hz = clock_hz;
+        this.script = script;
+    }
+
+    public static InputReplay load(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != InputRecorder.MAGIC || in.readShort() != InputRecorder.VERSION) {
+                throw new IOException("Not a CHIP-8 input log: " + path);
+            }
+
+            long seed = in.readLong();
+            int clock_hz = in.readInt();
+
+            long[] cycles = new long[64];
+            int[] masks = new int[64];
+            int count = 0;
+            long cycle = 0;
+
+            while (true) {
+                int b;
+                try {
+                    b = in.readUnsignedByte();
+                } catch (EOFException e) {
+                    break;
+                }
+
+                long delta = 0;
+                int shift = 0;
+                while ((b & 0x80) != 0) {
+                    delta |= (long) (b & 0x7F) << shift;
+                    shift += 7;
+                    b = in.readUnsignedByte();
+                }
+                delta |= (long) b << shift;
+                cycle += delta;
+
+                if (count == cycles.length) {
+                    cycles = Arrays.copyOf(cycles, count * 2);
+                    masks = Arrays.copyOf(masks, count * 2);
+                }
+                cycles[count] = cycle;
+                masks[count] = in.readUnsignedShort();
+                count++;
+            }
+
+            return new InputReplay(seed, clock_hz,
+                    new InputScript(Arrays.copyOf(cycles, count), Arrays.copyOf(masks, count)));
+        }
+    }
+
+    public long getSeed() {
+        return this.seed;
+    }
+
+    public int getClockHz() {
+        return this.clock_hz;
+    }
+
+    public InputScript getScript() {
+        return this.script;
+    }
+
+    /**
+     * The cycle the recorded session ended on.
+     */
+    public long getLength() {
+        return this.script.size() == 0 ? 0 : this.script.getCycle(this.script.size() - 1);
+    }
+}
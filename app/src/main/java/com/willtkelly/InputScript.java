@@ -0,0 +1,57 @@
+package com.willtkelly;
+
+/**
+ * A fixed schedule of key presses for unattended runs, written as
+ * "cycle:mask" pairs separated by commas, e.g. "5000:0020,5600:0". The mask
+ * is hex with bit n for key n and holds from its cycle until the next entry.
+ */
+public class InputScript {
+
+    public static final InputScript NONE = new InputScript(new long[0], new int[0]);
+
+    private final long[] cycles;
+    private final int[] masks;
+
+    InputScript(long[] cycles, int[] masks) {
+        this.cycles = cycles;
+        this.masks = masks;
+    }
+
+    public static InputScript parse(String script) {
+        if (script == null || script.isBlank()) {
+            return NONE;
+        }
+
+        String[] entries = script.split(",");
+        long[] cycles = new long[entries.length];
+        int[] masks = new int[entries.length];
+
+        for (int i = 0; i < entries.length; i++) {
+            String[] parts = entries[i].trim().split(":");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Expected cycle:mask, got: " + entries[i]);
+            }
+
+            cycles[i] = Long.parseLong(parts[0].trim());
+            masks[i] = Integer.parseInt(parts[1].trim(), 16) & 0xFFFF;
+
+            if (i > 0 && cycles[i] < cycles[i - 1]) {
+                throw new IllegalArgumentException("Input script is out of order at: " + entries[i]);
+            }
+        }
+
+        return new InputScript(cycles, masks);
+    }
+
+    public int size() {
+        return this.cycles.length;
+    }
+
+    public long getCycle(int index) {
+        return this.cycles[index];
+    }
+
+    public int getMask(int index) {
+        return this.masks[index];
+    }
+}
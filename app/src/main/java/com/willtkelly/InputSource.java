@@ -0,0 +1,33 @@
+package com.willtkelly;
+
+/**
+ * Where the interpreter reads the state of the 16-key hex keypad from.
+ * Implementations may be written to from another thread, so reads have to
+ * be safe without locks.
+ */
+public interface InputSource {
+
+    /**
+     * The keys currently held, bit n being key n.
+     */
+    int getKeyMask();
+
+    /**
+     * Returns the keys released since the last call, bit n being key n, and
+     * clears them. Fx0A finishes on a release, so a press and release that
+     * both happen between two reads of the mask still count.
+     */
+    int takeReleasedKeys();
+
+    default boolean isKeyPressed(int key) {
+        return (getKeyMask() & (1 << (key & 0xF))) != 0;
+    }
+
+    /**
+     * Returns the lowest key currently held, or -1 if none.
+     */
+    default int getPressedKey() {
+        int mask = getKeyMask();
+        return mask == 0 ? -1 : Integer.numberOfTrailingZeros(mask);
+    }
+}
@@ -3,46 +3,129 @@ package com.willtkelly;
 
 import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.Input;
+import com.badlogic.gdx.InputAdapter;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
 
-public class Keyboard {
+/**
+ * The keypad, fed by libGDX key events rather than polled. Each event flips
+ * one bit of an atomic 16-bit mask, so the CPU thread samples the keypad
+ * with a single volatile load and nothing is polled per instruction.
+ * Presses and releases are also latched until taken, so a tap shorter than
+ * a frame isn't lost.
+ *
+ * Register with Gdx.input.setInputProcessor. The hotkeys are still polled
+ * once a frame on the render thread.
+ */
+public class Keyboard extends InputAdapter implements InputSource {
 
-    private final boolean[] keys = new boolean[16];
+    // Host key for each CHIP-8 key, in key order 0-F
+    public static final String DEFAULT_KEYMAP = "X123QWEASDZC4RFV";
 
-    public void update() {
-        keys[0x0] = Gdx.input.isKeyPressed(Input.Keys.X);
-        keys[0x1] = Gdx.input.isKeyPressed(Input.Keys.NUM_1);
-        keys[0x2] = Gdx.input.isKeyPressed(Input.Keys.NUM_2);
-        keys[0x3] = Gdx.input.isKeyPressed(Input.Keys.NUM_3);
+    private static final int MAX_KEYCODE = 255;
 
-        keys[0x4] = Gdx.input.isKeyPressed(Input.Keys.Q);
-        keys[0x5] = Gdx.input.isKeyPressed(Input.Keys.W);
-        keys[0x6] = Gdx.input.isKeyPressed(Input.Keys.E);
-        keys[0x7] = Gdx.input.isKeyPressed(Input.Keys.A);
+    // CHIP-8 key for each host keycode, or -1
+    private final int[] keys = new int[MAX_KEYCODE + 1];
 
-        keys[0x8] = Gdx.input.isKeyPressed(Input.Keys.S);
-        keys[0x9] = Gdx.input.isKeyPressed(Input.Keys.D);
-        keys[0xA] = Gdx.input.isKeyPressed(Input.Keys.Z);
-        keys[0xB] = Gdx.input.isKeyPressed(Input.Keys.C);
+    private final AtomicInteger key_mask = new AtomicInteger();
+    private final AtomicInteger pressed = new AtomicInteger();
+    private final AtomicInteger released = new AtomicInteger();
 
-        keys[0xC] = Gdx.input.isKeyPressed(Input.Keys.NUM_4);
-        keys[0xD] = Gdx.input.isKeyPressed(Input.Keys.R);
-        keys[0xE] = Gdx.input.isKeyPressed(Input.Keys.F);
-        keys[0xF] = Gdx.input.isKeyPressed(Input.Keys.V);
+    public Keyboard() {
+        setKeymap(DEFAULT_KEYMAP);
+    }
+
+    /**
+     * Maps the 16 CHIP-8 keys to host keys. Character n of layout is the
+     * host key for CHIP-8 key n, e.g. the default "X123QWEASDZC4RFV".
+     */
+    public void setKeymap(String layout) {
+        if (layout.length() != 16) {
+            throw new IllegalArgumentException("Keymap needs 16 keys: " + layout);
+        }
+
+        int[] keys = new int[MAX_KEYCODE + 1];
+        Arrays.fill(keys, -1);
+        for (int i = 0; i < 16; i++) {
+            int keycode = Input.Keys.valueOf(String.valueOf(Character.toUpperCase(layout.charAt(i))));
+            if (keycode < 0 || keycode > MAX_KEYCODE) {
+                throw new IllegalArgumentException("Unknown key '" + layout.charAt(i) + "' in keymap " + layout);
+            }
+            keys[keycode] = i;
+        }
+        System.arraycopy(keys, 0, this.keys, 0, keys.length);
+    }
+
+    @Override
+    public boolean keyDown(int keycode) {
+        int key = key_for(keycode);
+        if (key == -1) return false;
+
+        this.key_mask.getAndAccumulate(1 << key, (mask, bit) -> mask | bit);
+        this.pressed.getAndAccumulate(1 << key, (mask, bit) -> mask | bit);
+        return true;
+    }
+
+    @Override
+    public boolean keyUp(int keycode) {
+        int key = key_for(keycode);
+        if (key == -1) return false;
+
+        this.key_mask.getAndAccumulate(1 << key, (mask, bit) -> mask & ~bit);
+        this.released.getAndAccumulate(1 << key, (mask, bit) -> mask | bit);
+        return true;
+    }
+
+    private int key_for(int keycode) {
+        return keycode >= 0 && keycode <= MAX_KEYCODE ? this.keys[keycode] : -1;
     }
 
     public boolean isEscapePressed() {
         return Gdx.input.isKeyPressed(Input.Keys.ESCAPE);
     }
 
-    public int getPressedKey() {
-        for (int i = 0; i < keys.length; i++) {
-            if (keys[i]) return i;
-        }
-        return -1;
+    // Save state hotkeys, true only on the frame the key goes down
+    public boolean isSaveStatePressed() {
+        return Gdx.input.isKeyJustPressed(Input.Keys.F5);
     }
 
-    public boolean isKeyPressed(int keycode) {
-        return keys[keycode & 0xF];
+    public boolean isLoadStatePressed() {
+        return Gdx.input.isKeyJustPressed(Input.Keys.F9);
+    }
+
+    public boolean isOverlayPressed() {
+        return Gdx.input.isKeyJustPressed(Input.Keys.F3);
+    }
+
+    // Held rather than tapped, runs at the turbo speed
+    public boolean isFastForwardPressed() {
+        return Gdx.input.isKeyPressed(Input.Keys.TAB);
+    }
+
+    // Held rather than tapped, rewinds one frame per frame
+    public boolean isRewindPressed() {
+        return Gdx.input.isKeyPressed(Input.Keys.BACKSPACE);
     }
-}
 
+    /**
+     * The keys held right now, bit n being key n.
+     */
+    @Override
+    public int getKeyMask() {
+        return this.key_mask.get();
+    }
+
+    @Override
+    public int takeReleasedKeys() {
+        // Plain read first, the CPU asks every cycle while it waits
+        return this.released.get() == 0 ? 0 : this.released.getAndSet(0);
+    }
+
+    /**
+     * Returns the keys pressed since the last call, bit n being key n, and
+     * clears them.
+     */
+    public int takePressedKeys() {
+        return this.pressed.get() == 0 ? 0 : this.pressed.getAndSet(0);
+    }
+}
@@ -0,0 +1,81 @@
+package com.willtkelly;
+
+import java.util.Arrays;
+
+/**
+ * Fixed-size histogram of positive longs in the style of HdrHistogram:
+ * buckets double in width and each is split into 16 sub-buckets, so any
+ * recorded value is reported to within about 6%. Recording is a couple of
+ * shifts and an increment, with nothing allocated.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+    private final long[] counts = new long[BUCKETS];
+    private long total = 0;
+    private long max = 0;
+
+    public void record(long value) {
+        if (value < 0) value = 0;
+
+        this.counts[index(value)]++;
+        this.total++;
+        if (value > this.max) this.max = value;
+    }
+
+    public void reset() {
+        Arrays.fill(this.counts, 0);
+        this.total = 0;
+        this.max = 0;
+    }
+
+    public long getTotal() {
+        return this.total;
+    }
+
+    public long getMax() {
+        return this.max;
+    }
+
+    /**
+     * The value at or below which the given fraction of recordings fall,
+     * e.g. 0.99 for the 99th percentile. Zero when empty.
+     */
+    public long getPercentile(double fraction) {
+        if (this.total == 0) return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(fraction * this.total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += this.counts[i];
+            if (seen >= rank) {
+                return Math.min(highest_in(i), this.max);
+            }
+        }
+        return this.max;
+    }
+
+    private static int index(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    private static long highest_in(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+
+        int exponent = index / SUB_BUCKETS + SUB_BITS - 1;
+        long sub = index % SUB_BUCKETS;
+        long lowest = (SUB_BUCKETS | sub) << (exponent - SUB_BITS);
+        return lowest + (1L << (exponent - SUB_BITS)) - 1;
+    }
+}
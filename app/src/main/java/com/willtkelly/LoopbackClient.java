@@ -0,0 +1,257 @@
+package com.willtkelly;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Client end of the SessionServer protocol. Keeps a copy of the session's
+ * screen up to date from the rows it is sent.
+ *
+ * Run on its own it opens --sessions sessions of a rom for --seconds, then
+ * checks each screen against the same rom run locally to the same cycle.
+ * Without --port it starts a server in process first.
+ */
+public class LoopbackClient implements Closeable {
+
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private final int session_id;
+    private final int clock_hz;
+
+    private final FrameBuffer frame = new FrameBuffer();
+    private long cycles = 0;
+    private boolean sound = false;
+    private long frames = 0;
+    private long bytes = 0;
+
+    private LoopbackClient(Socket socket, int session_id, int clock_hz, DataInputStream in, DataOutputStream out) {
+        this.socket = socket;
+        this.session_id = session_id;
+        this.clock_hz = clock_hz;
+        this.in = in;
+        this.out = out;
+    }
+
+    /**
+     * Connects to a server on this machine and opens a session running rom.
+     */
+    public static LoopbackClient open(int port, byte[] rom, QuirkProfile quirks, int clock_hz, long seed)
+            throws IOException {
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+        try {
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+
+            out.writeByte(SessionServer.MSG_OPEN);
+            out.writeByte(quirks.ordinal());
+            out.writeInt(clock_hz);
+            out.writeLong(seed);
+            out.writeInt(rom.length);
+            out.write(rom);
+            out.flush();
+
+            int type = in.readUnsignedByte();
+            if (type == SessionServer.MSG_ERROR) {
+                throw new IOException("Session refused: " + in.readUTF());
+            }
+            if (type != SessionServer.MSG_OPENED) {
+                throw new IOException("Unexpected message " + type);
+            }
+            return new LoopbackClient(socket, in.readInt(), in.readInt(), in, out);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    public int getSessionId() {
+        return this.session_id;
+    }
+
+    /**
+     * The clock the server granted, which may be lower than asked for.
+     */
+    public int getClockHz() {
+        return this.clock_hz;
+    }
+
+    /**
+     * The screen as of the last frame read.
+     */
+    public FrameBuffer getFrameBuffer() {
+        return this.frame;
+    }
+
+    /**
+     * Cycles the session had run when the last frame read was sent.
+     */
+    public long getCycles() {
+        return this.cycles;
+    }
+
+    public boolean isSoundOn() {
+        return this.sound;
+    }
+
+    public long getFramesReceived() {
+        return this.frames;
+    }
+
+    public long getBytesReceived() {
+        return this.bytes;
+    }
+
+    public void setKeys(int mask) throws IOException {
+        this.out.writeByte(SessionServer.MSG_KEYS);
+        this.out.writeShort(mask);
+        this.out.flush();
+    }
+
+    /**
+     * Waits up to timeout_millis for the next frame and applies it. Returns
+     * false if none came in time or the session ended.
+     */
+    public boolean readFrame(int timeout_millis) throws IOException {
+        this.socket.setSoTimeout(timeout_millis);
+        int type;
+        try {
+            type = this.in.read();
+        } catch (SocketTimeoutException e) {
+            return false;
+        }
+        if (type == -1) {
+            return false;
+        }
+        if (type != SessionServer.MSG_FRAME) {
+            throw new IOException("Unexpected message " + type);
+        }
+
+        // The rest of the frame is already on its way
+        this.socket.setSoTimeout(0);
+        this.cycles = this.in.readLong();
+        int flags = this.in.readUnsignedByte();
+        int planes = this.in.readUnsignedByte();
+        long dirty = this.in.readLong();
+
+        boolean hires = (flags & 1) != 0;
+        if (hires != this.frame.isHires()) {
+            this.frame.setHires(hires);
+        }
+        this.sound = (flags & 2) != 0;
+
+        int words = this.frame.getWordsPerRow();
+        for (long rows = dirty; rows != 0; rows &= rows - 1) {
+            int y = Long.numberOfTrailingZeros(rows);
+            for (int p = 0; p < planes; p++) {
+                long[] plane = this.frame.getPlane(p);
+                for (int w = 0; w < words; w++) {
+                    plane[y * words + w] = this.in.readLong();
+                }
+            }
+        }
+
+        this.frames++;
+        this.bytes += 19 + Long.bitCount(dirty) * planes * words * 8;
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.socket.close();
+    }
+
+    public static void main(String[] args) throws Exception {
+
+        Options options = Options.parse(args);
+
+        if (options.getRom() == null) {
+            System.out.println("Please include rom name... ( roms/[rom_name].ch8 [--port N] [--sessions 100] [--seconds 5] [--hz 700] [--quirks chip8|schip|xochip] [--seed N] )");
+            return;
+        }
+
+        byte[] rom = RomLoader.loadRom(options.getRom());
+        int sessions = options.getInt("sessions", 100);
+        long seconds = options.getLong("seconds", 5);
+        int clock_hz = options.getInt("hz", Scheduler.DEFAULT_CLOCK_HZ);
+        QuirkProfile quirks = QuirkProfile.parse(options.get("quirks", "chip8"));
+        long seed = options.getLong("seed", 0);
+
+        SessionServer server = null;
+        int port;
+        if (options.has("port")) {
+            port = options.getInt("port", SessionServer.DEFAULT_PORT);
+        } else {
+            server = new SessionServer(0, Runtime.getRuntime().availableProcessors(),
+                    SessionServer.DEFAULT_MAX_CLOCK_HZ);
+            server.start();
+            port = server.getPort();
+        }
+
+        // Each client reads on a virtual thread until the time is up
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        List<LoopbackClient> clients = new ArrayList<>();
+        List<Thread> readers = new ArrayList<>();
+        AtomicLong failures = new AtomicLong();
+        for (int i = 0; i < sessions; i++) {
+            LoopbackClient client = open(port, rom, quirks, clock_hz, seed);
+            clients.add(client);
+            readers.add(Thread.ofVirtual().start(() -> {
+                try {
+                    while (System.nanoTime() < deadline) {
+                        client.readFrame(100);
+                    }
+                } catch (IOException e) {
+                    failures.incrementAndGet();
+                }
+            }));
+        }
+        if (server != null) {
+            System.out.println("Sessions open: " + server.getSessionCount());
+        }
+        for (Thread reader : readers) {
+            reader.join();
+        }
+
+        long frames = 0;
+        long bytes = 0;
+        int matching = 0;
+        for (LoopbackClient client : clients) {
+            frames += client.getFramesReceived();
+            bytes += client.getBytesReceived();
+            if (BatchRunner.hash(client.getFrameBuffer()) == local_hash(rom, quirks, client, seed)) {
+                matching++;
+            }
+            client.close();
+        }
+
+        System.out.printf("Sessions: %d, Frames: %d, Bytes: %d (%.0f per frame), Screens matching a local run: %d/%d, Failed: %d%n",
+                sessions, frames, bytes, frames == 0 ? 0.0 : (double) bytes / frames,
+                matching, sessions, failures.get());
+        if (server != null) {
+            System.out.printf("Server step: %.2f ms per frame, %d late frames%n",
+                    server.getStepNanos() / 1e6, server.getLateFrames());
+            server.close();
+        }
+    }
+
+    // The screen the rom shows after the same number of cycles, run here
+    private static long local_hash(byte[] rom, QuirkProfile quirks, LoopbackClient client, long seed) {
+        Chip8 chip = new Chip8(rom);
+        chip.setQuirks(quirks);
+        chip.setSeed(seed);
+        Scheduler scheduler = new Scheduler(chip, client.getClockHz());
+        scheduler.runCycles(client.getCycles());
+        return BatchRunner.hash(chip.getFrameBuffer());
+    }
+}
@@ -0,0 +1,183 @@
+package com.willtkelly;
+
+import java.lang.management.ManagementFactory;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Runtime numbers for tuning the clock speed of a rom: instructions run,
+ * the emulated rate they were run at, frame times, frames that missed their
+ * slot, and how far the 60 Hz timers have drifted from the wall clock.
+ *
+ * Fed once per rendered frame from the render thread. Readers on other
+ * threads (JMX) may see values a frame apart from each other.
+ */
+public class Metrics implements MetricsMXBean {
+
+    // A frame that takes this many display periods or more counts as dropped
+    private static final double DROPPED_FRAME_FACTOR = 1.5;
+
+    private static final long RATE_WINDOW_NANOS = 1_000_000_000L;
+
+    private final long frame_period_nanos;
+    private final LatencyHistogram frame_times = new LatencyHistogram();
+
+    private volatile long instructions = 0;
+    private volatile double effective_hz = 0;
+    private volatile double speed_multiplier = 0;
+    private volatile long frames = 0;
+    private volatile long dropped_frames = 0;
+    private volatile double timer_drift_millis = 0;
+
+    private volatile boolean reset_requested = false;
+
+    private long start_nanos = -1;
+    private long last_frame_nanos = -1;
+    private long start_instructions;
+    private long start_timer_ticks;
+
+    // Start of the current window for the emulated rate
+    private long window_nanos;
+    private long window_instructions;
+    private long window_timer_ticks;
+
+    public Metrics() {
+        this(60);
+    }
+
+    public Metrics(int refresh_hz) {
+        this.frame_period_nanos = 1_000_000_000L / refresh_hz;
+    }
+
+    /**
+     * Records the end of a frame at now_nanos, with the totals the
+     * scheduler reports at that point.
+     */
+    public void frame(long now_nanos, long instructions, long timer_ticks) {
+        if (this.reset_requested) {
+            this.reset_requested = false;
+            this.start_nanos = -1;
+            this.frame_times.reset();
+            this.instructions = 0;
+            this.effective_hz = 0;
+            this.speed_multiplier = 0;
+            this.frames = 0;
+            this.dropped_frames = 0;
+            this.timer_drift_millis = 0;
+        }
+
+        if (this.start_nanos < 0) {
+            this.start_nanos = now_nanos;
+            this.last_frame_nanos = now_nanos;
+            this.window_nanos = now_nanos;
+            this.start_instructions = instructions;
+            this.window_instructions = instructions;
+            this.window_timer_ticks = timer_ticks;
+            this.start_timer_ticks = timer_ticks;
+            return;
+        }
+
+        long frame_time = now_nanos - this.last_frame_nanos;
+        this.last_frame_nanos = now_nanos;
+        this.frame_times.record(frame_time);
+        this.frames++;
+        if (frame_time >= this.frame_period_nanos * DROPPED_FRAME_FACTOR) {
+            this.dropped_frames++;
+        }
+
+        this.instructions = instructions - this.start_instructions;
+
+        if (now_nanos - this.window_nanos >= RATE_WINDOW_NANOS) {
+            long window = now_nanos - this.window_nanos;
+            this.effective_hz = (instructions - this.window_instructions) * 1e9 / window;
+            // Emulated seconds per real one, going by the 60 Hz timers
+            this.speed_multiplier = (timer_ticks - this.window_timer_ticks) * 1e9 / Scheduler.TIMER_HZ / window;
+            this.window_nanos = now_nanos;
+            this.window_instructions = instructions;
+            this.window_timer_ticks = timer_ticks;
+        }
+
+        // Positive when the emulated timers run ahead of real time
+        double emulated = (timer_ticks - this.start_timer_ticks) * 1000.0 / Scheduler.TIMER_HZ;
+        double real = (now_nanos - this.start_nanos) / 1e6;
+        this.timer_drift_millis = emulated - real;
+    }
+
+    /**
+     * Registers with the platform MBean server so tools like JConsole can
+     * read the numbers.
+     */
+    public void registerMBean() {
+        try {
+            ManagementFactory.getPlatformMBeanServer()
+                    .registerMBean(this, new ObjectName("com.willtkelly:type=Metrics"));
+        } catch (JMException e) {
+            System.err.println("Could not register metrics: " + e.getMessage());
+        }
+    }
+
+    public String summary() {
+        return String.format("%.0f Hz (%.2fx), %d instructions, frame p50 %.2f ms p99 %.2f ms max %.2f ms, "
+                        + "%d/%d dropped, timer drift %+.1f ms",
+                getEffectiveHz(), getSpeedMultiplier(), getInstructions(), getFrameTimeP50Millis(), getFrameTimeP99Millis(),
+                getFrameTimeMaxMillis(), getDroppedFrames(), getFrames(), getTimerDriftMillis());
+    }
+
+    @Override
+    public long getInstructions() {
+        return this.instructions;
+    }
+
+    @Override
+    public double getEffectiveHz() {
+        return this.effective_hz;
+    }
+
+    /**
+     * How many times faster than real time the machine ran over the last
+     * second, 1 at normal speed.
+     */
+    @Override
+    public double getSpeedMultiplier() {
+        return this.speed_multiplier;
+    }
+
+    @Override
+    public long getFrames() {
+        return this.frames;
+    }
+
+    @Override
+    public long getDroppedFrames() {
+        return this.dropped_frames;
+    }
+
+    @Override
+    public double getFrameTimeP50Millis() {
+        return this.frame_times.getPercentile(0.50) / 1e6;
+    }
+
+    @Override
+    public double getFrameTimeP99Millis() {
+        return this.frame_times.getPercentile(0.99) / 1e6;
+    }
+
+    @Override
+    public double getFrameTimeMaxMillis() {
+        return this.frame_times.getMax() / 1e6;
+    }
+
+    @Override
+    public double getTimerDriftMillis() {
+        return this.timer_drift_millis;
+    }
+
+    /**
+     * Starts counting again from the next frame. Safe from any thread, the
+     * render thread does the clearing.
+     */
+    @Override
+    public void reset() {
+        this.reset_requested = true;
+    }
+}
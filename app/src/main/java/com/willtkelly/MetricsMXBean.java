@@ -0,0 +1,27 @@
+package com.willtkelly;
+
+/**
+ * What Metrics exposes over JMX, under com.willtkelly:type=Metrics.
+ */
+public interface MetricsMXBean {
+
+    long getInstructions();
+
+    double getEffectiveHz();
+
+    double getSpeedMultiplier();
+
+    long getFrames();
+
+    long getDroppedFrames();
+
+    double getFrameTimeP50Millis();
+
+    double getFrameTimeP99Millis();
+
+    double getFrameTimeMaxMillis();
+
+    double getTimerDriftMillis();
+
+    void reset();
+}
@@ -0,0 +1,44 @@
+package com.willtkelly;
+
+import com.badlogic.gdx.graphics.Color;
+import com.badlogic.gdx.graphics.g2d.BitmapFont;
+import com.badlogic.gdx.graphics.g2d.SpriteBatch;
+
+/**
+ * Draws the current metrics in the top left corner of the window. The text
+ * is rebuilt a few times a second rather than every frame, so the overlay
+ * itself barely shows up in the frame times it reports.
+ */
+class MetricsOverlay {
+
+    private static final float REFRESH_SECONDS = 0.5f;
+
+    private final BitmapFont font = new BitmapFont();
+    private final SpriteBatch batch = new SpriteBatch();
+
+    private String text = "";
+    private float since_refresh = REFRESH_SECONDS;
+
+    MetricsOverlay() {
+        this.font.setColor(Color.GREEN);
+    }
+
+    void draw(Metrics metrics, float delta, int height) {
+        this.since_refresh += delta;
+        if (this.since_refresh >= REFRESH_SECONDS) {
+            this.since_refresh = 0f;
+            this.text = String.format("%.0f Hz  %.2fx%nframe p50 %.1f ms  p99 %.1f ms%ndropped %d/%d%ntimer drift %+.0f ms",
+                    metrics.getEffectiveHz(), metrics.getSpeedMultiplier(), metrics.getFrameTimeP50Millis(), metrics.getFrameTimeP99Millis(),
+                    metrics.getDroppedFrames(), metrics.getFrames(), metrics.getTimerDriftMillis());
+        }
+
+        this.batch.begin();
+        this.font.draw(this.batch, this.text, 4, height - 4);
+        this.batch.end();
+    }
+
+    void dispose() {
+        this.font.dispose();
+        this.batch.dispose();
+    }
+}
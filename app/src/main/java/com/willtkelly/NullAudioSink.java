@@ -0,0 +1,16 @@
+package com.willtkelly;
+
+/**
+ * Audio sink for running without a window or sound device, drops
+ * everything.
+ */
+public class NullAudioSink implements AudioSink {
+
+    @Override
+    public void tick(boolean sound_on, byte[] pattern, int pitch) {
+    }
+
+    @Override
+    public void close() {
+    }
+}
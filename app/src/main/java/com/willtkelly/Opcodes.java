@@ -0,0 +1,220 @@
+package com.willtkelly;
+
+/**
+ * Instruction ids for the table dispatch. Every possible opcode is decoded
+ * once, up front, into DECODE_TABLE so the interpreter never has to pick the
+ * opcode apart nibble by nibble to work out what to run.
+ */
+final class Opcodes {
+
+    static final int UNKNOWN = 0; // Also 0nnn - SYS addr, which we ignore
+    static final int CLS = 1;
+    static final int RET = 2;
+    static final int JP = 3;
+    static final int CALL = 4;
+    static final int SE_BYTE = 5;
+    static final int SNE_BYTE = 6;
+    static final int SE_REG = 7;
+    static final int LD_BYTE = 8;
+    static final int ADD_BYTE = 9;
+    static final int LD_REG = 10;
+    static final int OR = 11;
+    static final int AND = 12;
+    static final int XOR = 13;
+    static final int ADD_REG = 14;
+    static final int SUB = 15;
+    static final int SHR = 16;
+    static final int SUBN = 17;
+    static final int SHL = 18;
+    static final int SNE_REG = 19;
+    static final int LD_I = 20;
+    static final int JP_V0 = 21;
+    static final int RND = 22;
+    static final int DRW = 23;
+    static final int SKP = 24;
+    static final int SKNP = 25;
+    static final int LD_VX_DT = 26;
+    static final int LD_VX_K = 27;
+    static final int LD_DT_VX = 28;
+    static final int LD_ST_VX = 29;
+    static final int ADD_I = 30;
+    static final int LD_F = 31;
+    static final int LD_B = 32;
+    static final int LD_MEM_VX = 33;
+    static final int LD_VX_MEM = 34;
+
+    // Variants that QuirkProfile swaps in when it builds its own table, so
+    // a quirk costs nothing at run time
+    static final int OR_VF_RESET = 35;
+    static final int AND_VF_RESET = 36;
+    static final int XOR_VF_RESET = 37;
+    static final int SHR_VY = 38;
+    static final int SHL_VY = 39;
+    static final int JP_VX = 40;
+    static final int LD_MEM_VX_INC = 41;
+    static final int LD_VX_MEM_INC = 42;
+    static final int DRW_CLIP = 43;
+    static final int DRW_CLIP_WAIT = 44;
+
+    // SUPER-CHIP and XO-CHIP instructions, only in those profiles' tables
+    static final int SCD = 45;
+    static final int SCU = 46;
+    static final int SCR = 47;
+    static final int SCL = 48;
+    static final int EXIT = 49;
+    static final int LOW = 50;
+    static final int HIGH = 51;
+    static final int DRW_LARGE = 52;
+    static final int DRW_LARGE_CLIP = 53;
+    static final int LD_HF = 54;
+    static final int LD_R_VX = 55;
+    static final int LD_VX_R = 56;
+    static final int SAVE_RANGE = 57;
+    static final int LOAD_RANGE = 58;
+    static final int LD_I_LONG = 59;
+    static final int PLANE = 60;
+    static final int AUDIO = 61;
+    static final int PITCH = 62;
+
+    static final int COUNT = 63;
+
+    static final String[] NAMES = {
+        "SYS/unknown", "00E0 CLS", "00EE RET", "1nnn JP", "2nnn CALL",
+        "3xkk SE", "4xkk SNE", "5xy0 SE", "6xkk LD", "7xkk ADD",
+        "8xy0 LD", "8xy1 OR", "8xy2 AND", "8xy3 XOR", "8xy4 ADD",
+        "8xy5 SUB", "8xy6 SHR", "8xy7 SUBN", "8xyE SHL", "9xy0 SNE",
+        "Annn LD I", "Bnnn JP V0", "Cxkk RND", "Dxyn DRW", "Ex9E SKP",
+        "ExA1 SKNP", "Fx07 LD DT", "Fx0A LD K", "Fx15 LD DT", "Fx18 LD ST",
+        "Fx1E ADD I", "Fx29 LD F", "Fx33 LD B", "Fx55 LD [I]", "Fx65 LD Vx",
+        "8xy1 OR*", "8xy2 AND*", "8xy3 XOR*", "8xy6 SHR*", "8xyE SHL*",
+        "Bxnn JP Vx", "Fx55 LD [I]*", "Fx65 LD Vx*", "Dxyn DRW*", "Dxyn DRW*w",
+        "00Cn SCD", "00Dn SCU", "00FB SCR", "00FC SCL", "00FD EXIT",
+        "00FE LOW", "00FF HIGH", "Dxy0 DRW", "Dxy0 DRW*", "Fx30 LD HF",
+        "Fx75 LD R", "Fx85 LD Vx, R", "5xy2 SAVE", "5xy3 LOAD", "F000 LD I",
+        "Fn01 PLANE", "F002 AUDIO", "Fx3A PITCH",
+    };
+
+    static final byte[] DECODE_TABLE = new byte[0x10000];
+
+    static {
+        // decode() only looks at the top nibble, n and kk, so decoding one
+        // opcode per (op, kk) and copying it across the 16 values of x is
+        // enough. Startup matters for short headless runs.
+        for (int op = 0; op < 0x10; op++) {
+            for (int kk = 0; kk < 0x100; kk++) {
+                byte instruction = (byte) decode((op << 12) | kk);
+                for (int x = 0; x < 0x10; x++) {
+                    DECODE_TABLE[(op << 12) | (x << 8) | kk] = instruction;
+                }
+            }
+        }
+
+        // Except 0x00E0 and 0x00EE, which need x == 0
+        for (int x = 1; x < 0x10; x++) {
+            DECODE_TABLE[(x << 8) | 0xE0] = UNKNOWN;
+            DECODE_TABLE[(x << 8) | 0xEE] = UNKNOWN;
+        }
+    }
+
+    private Opcodes() { }
+
+    /**
+     * Decodes a single opcode, matching the legacy decoder's choices for the
+     * opcodes it is loose about (e.g. 5xyn for any n).
+     */
+    static int decode(int opcode) {
+        int op = (opcode >> 12) & 0xF;
+        int n = opcode & 0xF;
+        int kk = opcode & 0xFF;
+
+        switch (op) {
+            case 0x0:
+                if (opcode == 0x00E0) return CLS;
+                if (opcode == 0x00EE) return RET;
+                return UNKNOWN;
+            case 0x1: return JP;
+            case 0x2: return CALL;
+            case 0x3: return SE_BYTE;
+            case 0x4: return SNE_BYTE;
+            case 0x5: return SE_REG;
+            case 0x6: return LD_BYTE;
+            case 0x7: return ADD_BYTE;
+            case 0x8:
+                switch (n) {
+                    case 0x0: return LD_REG;
+                    case 0x1: return OR;
+                    case 0x2: return AND;
+                    case 0x3: return XOR;
+                    case 0x4: return ADD_REG;
+                    case 0x5: return SUB;
+                    case 0x6: return SHR;
+                    case 0x7: return SUBN;
+                    case 0xE: return SHL;
+                    default: return UNKNOWN;
+                }
+            case 0x9: return SNE_REG;
+            case 0xA: return LD_I;
+            case 0xB: return JP_V0;
+            case 0xC: return RND;
+            case 0xD: return DRW;
+            case 0xE:
+                if (kk == 0x9E) return SKP;
+                if (kk == 0xA1) return SKNP;
+                return UNKNOWN;
+            default:
+                switch (kk) {
+                    case 0x07: return LD_VX_DT;
+                    case 0x0A: return LD_VX_K;
+                    case 0x15: return LD_DT_VX;
+                    case 0x18: return LD_ST_VX;
+                    case 0x1E: return ADD_I;
+                    case 0x29: return LD_F;
+                    case 0x33: return LD_B;
+                    case 0x55: return LD_MEM_VX;
+                    case 0x65: return LD_VX_MEM;
+                    default: return UNKNOWN;
+                }
+        }
+    }
+
+    /**
+     * The SUPER-CHIP additions, or UNKNOWN. Dxy0 is left to QuirkProfile
+     * since its variant depends on clipping.
+     */
+    static int decodeSuperChip(int opcode) {
+        if ((opcode & 0xFFF0) == 0x00C0) return SCD;
+
+        switch (opcode) {
+            case 0x00FB: return SCR;
+            case 0x00FC: return SCL;
+            case 0x00FD: return EXIT;
+            case 0x00FE: return LOW;
+            case 0x00FF: return HIGH;
+            default: break;
+        }
+
+        if ((opcode & 0xF000) == 0xF000) {
+            switch (opcode & 0xFF) {
+                case 0x30: return LD_HF;
+                case 0x75: return LD_R_VX;
+                case 0x85: return LD_VX_R;
+                default: break;
+            }
+        }
+        return UNKNOWN;
+    }
+
+    /**
+     * The XO-CHIP additions on top of SUPER-CHIP, or UNKNOWN.
+     */
+    static int decodeXoChip(int opcode) {
+        if ((opcode & 0xFFF0) == 0x00D0) return SCU;
+        if ((opcode & 0xF00F) == 0x5002) return SAVE_RANGE;
+        if ((opcode & 0xF00F) == 0x5003) return LOAD_RANGE;
+        if (opcode == 0xF000) return LD_I_LONG;
+        if (opcode == 0xF002) return AUDIO;
+        if ((opcode & 0xF0FF) == 0xF001) return PLANE;
+        if ((opcode & 0xF0FF) == 0xF03A) return PITCH;
+        return UNKNOWN;
+    }
+}
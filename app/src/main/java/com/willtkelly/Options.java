@@ -0,0 +1,66 @@
+package com.willtkelly;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Command line options: the first plain argument is the rom, the rest are
+ * "--name value" or "--name=value" pairs. Flags the caller names never take
+ * the next argument, so "--mute rom.ch8" keeps the rom; they, and an option
+ * given last, are stored as "true".
+ */
+public class Options {
+
+    private String rom;
+    private final Map<String, String> flags = new HashMap<>();
+
+    public static Options parse(String[] args, String... flags) {
+        Options options = new Options();
+        Set<String> no_value = Set.of(flags);
+
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+
+            if (arg.startsWith("--")) {
+                String name = arg.substring(2);
+                int equals = name.indexOf('=');
+                if (equals >= 0) {
+                    options.flags.put(name.substring(0, equals), name.substring(equals + 1));
+                } else if (!no_value.contains(name) && i + 1 < args.length && !args[i + 1].startsWith("--")) {
+                    options.flags.put(name, args[++i]);
+                } else {
+                    options.flags.put(name, "true");
+                }
+            } else if (options.rom == null) {
+                options.rom = arg;
+            } else {
+                throw new IllegalArgumentException("Unexpected argument: " + arg);
+            }
+        }
+
+        return options;
+    }
+
+    public String getRom() {
+        return this.rom;
+    }
+
+    public boolean has(String name) {
+        return this.flags.containsKey(name);
+    }
+
+    public String get(String name, String fallback) {
+        return this.flags.getOrDefault(name, fallback);
+    }
+
+    public int getInt(String name, int fallback) {
+        String value = this.flags.get(name);
+        return value == null ? fallback : Integer.parseInt(value);
+    }
+
+    public long getLong(String name, long fallback) {
+        String value = this.flags.get(name);
+        return value == null ? fallback : Long.parseLong(value);
+    }
+}
@@ -0,0 +1,122 @@
+package com.willtkelly;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Counts instructions executed per opcode class and per address. Attach one
+ * with Chip8.setProfiler; with none attached the interpreter only pays a
+ * null check per instruction.
+ *
+ * Compiled JIT blocks run without counting, so the JIT tier is skipped while
+ * a profiler is attached.
+ */
+public class Profiler {
+
+    private final long[] opcode_counts = new long[Opcodes.COUNT];
+    private final long[] address_counts;
+    private final byte[] address_ids; // Opcode class last seen at each address
+
+    public Profiler(int memory_size) {
+        this.address_counts = new long[memory_size];
+        this.address_ids = new byte[memory_size];
+    }
+
+    void count(int instruction, int address) {
+        this.opcode_counts[instruction]++;
+        this.address_counts[address]++;
+        this.address_ids[address] = (byte) instruction;
+    }
+
+    public void reset() {
+        Arrays.fill(this.opcode_counts, 0);
+        Arrays.fill(this.address_counts, 0);
+    }
+
+    public long getTotal() {
+        long total = 0;
+        for (long count : this.opcode_counts) {
+            total += count;
+        }
+        return total;
+    }
+
+    public long getAddressCount(int address) {
+        return this.address_counts[address];
+    }
+
+    /**
+     * Prints every opcode class that ran, most frequent first, then the top
+     * hottest addresses.
+     */
+    public void printReport(PrintStream out, int top) {
+        long total = Math.max(1, getTotal());
+
+        out.println("Instructions: " + getTotal());
+        out.println();
+        out.printf("%-12s %12s %6s%n", "Opcode", "Count", "%");
+        for (int id : sorted(this.opcode_counts, this.opcode_counts.length)) {
+            long count = this.opcode_counts[id];
+            out.printf("%-12s %12d %6.2f%n", Opcodes.NAMES[id], count, 100.0 * count / total);
+        }
+
+        out.println();
+        out.printf("%-8s %-12s %12s %6s%n", "Address", "Opcode", "Count", "%");
+        for (int address : sorted(this.address_counts, top)) {
+            long count = this.address_counts[address];
+            out.printf("0x%03X    %-12s %12d %6.2f%n",
+                    address, Opcodes.NAMES[this.address_ids[address]], count, 100.0 * count / total);
+        }
+        out.flush();
+    }
+
+    /**
+     * Writes every non-zero counter as "kind,key,name,count" rows, kind being
+     * opcode or address.
+     */
+    public void writeCsv(Path path) throws IOException {
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(path))) {
+            out.println("kind,key,name,count");
+            for (int id = 0; id < this.opcode_counts.length; id++) {
+                if (this.opcode_counts[id] != 0) {
+                    out.printf("opcode,%d,%s,%d%n", id, Opcodes.NAMES[id], this.opcode_counts[id]);
+                }
+            }
+            for (int address = 0; address < this.address_counts.length; address++) {
+                if (this.address_counts[address] != 0) {
+                    out.printf("address,0x%03X,%s,%d%n",
+                            address, Opcodes.NAMES[this.address_ids[address]], this.address_counts[address]);
+                }
+            }
+        }
+    }
+
+    // Indexes of the largest non-zero counts, largest first
+    private static int[] sorted(long[] counts, int limit) {
+        int[] order = new int[counts.length];
+        int n = 0;
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] != 0) order[n++] = i;
+        }
+
+        // Selection of the top entries. Only addresses that ran take part,
+        // and either limit or the opcode count is small, so even 64 KB of
+        // XO-CHIP memory stays cheap
+        int keep = Math.min(limit, n);
+        for (int i = 0; i < keep; i++) {
+            int best = i;
+            for (int j = i + 1; j < n; j++) {
+                if (counts[order[j]] > counts[order[best]]) best = j;
+            }
+            int swap = order[i];
+            order[i] = order[best];
+            order[best] = swap;
+        }
+
+        return Arrays.copyOf(order, keep);
+    }
+}
@@ -0,0 +1,113 @@
+package com.willtkelly;
+
+/**
+ * The behaviours CHIP-8 interpreters disagree on, as tested by the quirks
+ * test rom, and the instruction set each one adds. Each profile builds its
+ * own copy of the decode table with the plain instruction ids swapped for
+ * their quirk variants and extensions, so picking a profile changes which
+ * handler an opcode decodes to, and the interpreter never checks a quirk
+ * flag per instruction.
+ */
+public enum QuirkProfile {
+
+    /** The original COSMAC VIP interpreter. */
+    CHIP8(true, true, true, false, true, true, false, false),
+    /** SUPER-CHIP 1.1 as it runs on the HP48, without display wait. */
+    SCHIP(false, false, false, true, true, false, true, false),
+    /** Octo's XO-CHIP. */
+    XOCHIP(false, true, true, false, false, false, true, true);
+
+    /** 8xy1, 8xy2 and 8xy3 clear VF. */
+    final boolean vf_reset;
+    /** 8xy6 and 8xyE shift Vy into Vx, rather than shifting Vx in place. */
+    final boolean shift_vy;
+    /** Fx55 and Fx65 leave I pointing past the last register. */
+    final boolean memory_increment;
+    /** Bnnn jumps to nnn + Vx, x being the top nibble of nnn, not to nnn + V0. */
+    final boolean jump_vx;
+    /** Sprites are cut off at the screen edges rather than wrapping around. */
+    final boolean clipping;
+    /** Dxyn waits for the next 60 Hz tick before the program carries on. Only with clipping. */
+    final boolean display_wait;
+    /** The SUPER-CHIP instructions: high resolution, scrolling, 16x16 sprites, big font, RPL flags. */
+    final boolean superchip;
+    /** The XO-CHIP instructions: bitplanes, scrolling up, long I, register ranges, audio. */
+    final boolean xochip;
+    /** Addressable memory, 64KB for XO-CHIP and 4KB otherwise. */
+    final int memory_size;
+
+    private byte[] decode_table;
+
+    QuirkProfile(boolean vf_reset, boolean shift_vy, boolean memory_increment,
+                 boolean jump_vx, boolean clipping, boolean display_wait,
+                 boolean superchip, boolean xochip) {
+        this.vf_reset = vf_reset;
+        this.shift_vy = shift_vy;
+        this.memory_increment = memory_increment;
+        this.jump_vx = jump_vx;
+        this.clipping = clipping;
+        this.display_wait = display_wait;
+        this.superchip = superchip;
+        this.xochip = xochip;
+        this.memory_size = xochip ? 0x10000 : 0x1000;
+    }
+
+    /**
+     * Accepts the names used on the command line and in the rom index,
+     * e.g. "chip8", "super-chip" or "XO-CHIP".
+     */
+    public static QuirkProfile parse(String value) {
+        String name = value.toUpperCase().replace("-", "").replace("_", "");
+        if (name.equals("SUPERCHIP")) {
+            return SCHIP;
+        }
+        return QuirkProfile.valueOf(name);
+    }
+
+    /**
+     * This profile's decode table, built on first use.
+     */
+    synchronized byte[] decodeTable() {
+        if (this.decode_table == null) {
+            byte[] table = Opcodes.DECODE_TABLE.clone();
+            for (int opcode = 0; opcode < table.length; opcode++) {
+                table[opcode] = (byte) extend(opcode, specialize(table[opcode]));
+            }
+            this.decode_table = table;
+        }
+        return this.decode_table;
+    }
+
+    // Opcodes the later instruction sets added, which replace what the
+    // plain CHIP-8 table had for them
+    private int extend(int opcode, int instruction) {
+        if (this.xochip && Opcodes.decodeXoChip(opcode) != Opcodes.UNKNOWN) {
+            return Opcodes.decodeXoChip(opcode);
+        }
+        if (!this.superchip) {
+            return instruction;
+        }
+        if ((opcode & 0xF00F) == 0xD000) {
+            return this.clipping ? Opcodes.DRW_LARGE_CLIP : Opcodes.DRW_LARGE;
+        }
+        int extended = Opcodes.decodeSuperChip(opcode);
+        return extended != Opcodes.UNKNOWN ? extended : instruction;
+    }
+
+    private int specialize(int instruction) {
+        switch (instruction) {
+            case Opcodes.OR: return this.vf_reset ? Opcodes.OR_VF_RESET : instruction;
+            case Opcodes.AND: return this.vf_reset ? Opcodes.AND_VF_RESET : instruction;
+            case Opcodes.XOR: return this.vf_reset ? Opcodes.XOR_VF_RESET : instruction;
+            case Opcodes.SHR: return this.shift_vy ? Opcodes.SHR_VY : instruction;
+            case Opcodes.SHL: return this.shift_vy ? Opcodes.SHL_VY : instruction;
+            case Opcodes.JP_V0: return this.jump_vx ? Opcodes.JP_VX : instruction;
+            case Opcodes.LD_MEM_VX: return this.memory_increment ? Opcodes.LD_MEM_VX_INC : instruction;
+            case Opcodes.LD_VX_MEM: return this.memory_increment ? Opcodes.LD_VX_MEM_INC : instruction;
+            case Opcodes.DRW:
+                if (!this.clipping) return instruction;
+                return this.display_wait ? Opcodes.DRW_CLIP_WAIT : Opcodes.DRW_CLIP;
+            default: return instruction;
+        }
+    }
+}
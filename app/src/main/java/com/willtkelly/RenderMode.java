@@ -0,0 +1,15 @@
+package com.willtkelly;
+
+/**
+ * How Display gets the framebuffer onto the screen.
+ */
+public enum RenderMode {
+    /** One filled rect per lit pixel through ShapeRenderer. */
+    SHAPE,
+    /** The framebuffer uploaded as a texture and drawn as one scaled quad. */
+    TEXTURE;
+
+    public static RenderMode parse(String value) {
+        return RenderMode.valueOf(value.toUpperCase());
+    }
+}
@@ -0,0 +1,284 @@
+package com.willtkelly;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Keeps the last few seconds of machine state so play can be wound back a
+ * frame at a time.
+ *
+ * Every frame is stored XORed against the most recent keyframe, with runs of
+ * zero bytes skipped, so a frame that only changed a few registers and rows
+ * costs tens of bytes instead of a full save state. Keyframes are stored the
+ * same way against zero. Records live in one preallocated arena used as a
+ * ring; when it runs out of room the oldest keyframe and its frames go.
+ */
+public class RewindBuffer {
+
+    public static final int DEFAULT_SECONDS = 60;
+    public static final int DEFAULT_BUDGET_BYTES = 8 * 1024 * 1024;
+
+    private static final int FRAMES_PER_SECOND = 60;
+    private static final int KEYFRAME_INTERVAL = 60;
+
+    // Zero runs shorter than this are cheaper to copy than to skip
+    private static final int MIN_ZERO_RUN = 4;
+
+    // An encoded record is a series of (skip, count, count literal bytes)
+    // with both lengths as shorts, so no run is longer than this
+    private static final int MAX_RUN = 0xFFFF;
+
+    private final byte[] arena;
+    private int write_offset = 0;
+
+    // Record ring, indexed by sequence number modulo max_frames
+    private final int max_frames;
+    private final int[] offsets;
+    private final int[] lengths;
+    private final long[] keyframe_of;
+    private long oldest = 0; // Sequence number of the oldest record
+    private long next = 0;   // Sequence number the next record gets
+
+    // Sized for the chip on the first record, as the state size depends
+    // on the quirk profile
+    private byte[] state = new byte[0];
+    private byte[] keyframe = new byte[0];
+    private long decoded_keyframe = -1; // Which record keyframe holds
+    private ByteBuffer state_buffer = ByteBuffer.wrap(state);
+    private int max_record = 0;
+
+    public RewindBuffer() {
+        this(DEFAULT_SECONDS, DEFAULT_BUDGET_BYTES);
+    }
+
+    public RewindBuffer(int seconds, int budget_bytes) {
+        if (budget_bytes < max_record(Chip8.MAX_STATE_SIZE)) {
+            throw new IllegalArgumentException("Rewind budget too small: " + budget_bytes);
+        }
+
+        this.max_frames = Math.max(1, seconds * FRAMES_PER_SECOND);
+        this.arena = new byte[budget_bytes];
+        this.offsets = new int[max_frames];
+        this.lengths = new int[max_frames];
+        this.keyframe_of = new long[max_frames];
+    }
+
+    /**
+     * Number of frames that can currently be wound back.
+     */
+    public int size() {
+        return (int) Math.max(0, next - oldest - 1);
+    }
+
+    public void clear() {
+        this.oldest = 0;
+        this.next = 0;
+        this.write_offset = 0;
+        this.decoded_keyframe = -1;
+    }
+
+    /**
+     * Records the current state of chip as the newest frame.
+     */
+    public void record(Chip8 chip) {
+        if (this.state.length != chip.getStateSize()) {
+            resize(chip.getStateSize());
+        }
+        this.state_buffer.clear();
+        chip.saveState(this.state_buffer);
+
+        if (next - oldest == max_frames) {
+            evict_oldest();
+        }
+        int offset = reserve(this.max_record);
+
+        // Reserving may have evicted the keyframe this frame would refer to
+        long key = next == oldest ? -1 : keyframe_of[slot(next - 1)];
+        boolean is_keyframe = key < oldest || next - key >= KEYFRAME_INTERVAL;
+
+        int length;
+        if (is_keyframe) {
+            length = encode(this.state, null, offset);
+            System.arraycopy(this.state, 0, this.keyframe, 0, this.state.length);
+            key = next;
+            this.decoded_keyframe = next;
+        } else {
+            load_keyframe(key);
+            length = encode(this.state, this.keyframe, offset);
+        }
+
+        int slot = slot(next);
+        this.offsets[slot] = offset;
+        this.lengths[slot] = length;
+        this.keyframe_of[slot] = key;
+        this.write_offset = offset + length;
+        this.next++;
+    }
+
+    /**
+     * Drops the newest frame and puts chip back to the one before it.
+     * Returns false once there is nothing left to wind back to.
+     */
+    public boolean rewind(Chip8 chip) {
+        if (size() == 0) {
+            return false;
+        }
+
+        this.next--;
+        if (this.decoded_keyframe == this.next) {
+            this.decoded_keyframe = -1;
+        }
+        this.write_offset = this.offsets[slot(this.next)];
+
+        long seq = this.next - 1;
+        int slot = slot(seq);
+        long key = this.keyframe_of[slot];
+        if (key == seq) {
+            decode(this.offsets[slot], this.lengths[slot], null, this.state);
+        } else {
+            load_keyframe(key);
+            decode(this.offsets[slot], this.lengths[slot], this.keyframe, this.state);
+        }
+
+        this.state_buffer.clear();
+        chip.loadState(this.state_buffer);
+        return true;
+    }
+
+    // A different state size means a different machine, so the old frames go
+    private void resize(int state_size) {
+        this.max_record = max_record(state_size);
+        this.state = new byte[state_size];
+        this.keyframe = new byte[state_size];
+        this.state_buffer = ByteBuffer.wrap(this.state);
+        clear();
+    }
+
+    // Merging short zero runs keeps the worst case one header past a raw
+    // copy, plus one for each run split at MAX_RUN
+    private static int max_record(int state_size) {
+        return state_size + 4 * (state_size / MAX_RUN + 2);
+    }
+
+    private int slot(long seq) {
+        return (int) (seq % max_frames);
+    }
+
+    private void load_keyframe(long key) {
+        if (this.decoded_keyframe != key) {
+            int slot = slot(key);
+            decode(this.offsets[slot], this.lengths[slot], null, this.keyframe);
+            this.decoded_keyframe = key;
+        }
+    }
+
+    /**
+     * Finds room for a record of up to size bytes, evicting old frames until
+     * it fits. Records never wrap around the end of the arena.
+     */
+    private int reserve(int size) {
+        while (true) {
+            if (next == oldest) {
+                return 0;
+            }
+
+            int tail = this.offsets[slot(oldest)];
+            int head = this.write_offset;
+            if (head > tail) {
+                if (head + size <= arena.length) {
+                    return head;
+                }
+                if (size <= tail) {
+                    return 0;
+                }
+            } else if (head + size <= tail) {
+                return head;
+            }
+
+            evict_oldest();
+        }
+    }
+
+    // A frame needs its keyframe, so the whole group goes at once
+    private void evict_oldest() {
+        do {
+            this.oldest++;
+        } while (oldest < next && keyframe_of[slot(oldest)] != oldest);
+
+        if (this.decoded_keyframe < oldest) {
+            this.decoded_keyframe = -1;
+        }
+    }
+
+    private int encode(byte[] state, byte[] base, int offset) {
+        int out = offset;
+        int i = 0;
+
+        while (i < state.length) {
+            int skip = 0;
+            while (i + skip < state.length && skip < MAX_RUN && diff(state, base, i + skip) == 0) {
+                skip++;
+            }
+            i += skip;
+
+            // Literal run up to the next zero run worth skipping
+            int start = i;
+            int zeros = 0;
+            while (i < state.length && zeros < MIN_ZERO_RUN && i - start < MAX_RUN) {
+                zeros = diff(state, base, i) == 0 ? zeros + 1 : 0;
+                i++;
+            }
+            if (zeros == MIN_ZERO_RUN) {
+                i -= zeros;
+            }
+            int count = i - start;
+
+            if (count == 0 && i == state.length) {
+                break; // Nothing but zeros to the end
+            }
+
+            put_short(out, skip);
+            put_short(out + 2, count);
+            out += 4;
+            for (int j = start; j < i; j++) {
+                this.arena[out++] = diff(state, base, j);
+            }
+        }
+
+        return out - offset;
+    }
+
+    private void decode(int offset, int length, byte[] base, byte[] state) {
+        if (base == null) {
+            Arrays.fill(state, (byte) 0);
+        } else {
+            System.arraycopy(base, 0, state, 0, state.length);
+        }
+
+        int in = offset;
+        int end = offset + length;
+        int i = 0;
+
+        while (in < end) {
+            i += get_short(in);
+            int count = get_short(in + 2);
+            in += 4;
+            for (int j = 0; j < count; j++) {
+                state[i++] ^= this.arena[in++];
+            }
+        }
+    }
+
+    private static byte diff(byte[] state, byte[] base, int i) {
+        return base == null ? state[i] : (byte) (state[i] ^ base[i]);
+    }
+
+    private void put_short(int at, int value) {
+        this.arena[at] = (byte) (value >> 8);
+        this.arena[at + 1] = (byte) value;
+    }
+
+    private int get_short(int at) {
+        return (this.arena[at] & 0xFF) << 8 | (this.arena[at + 1] & 0xFF);
+    }
+}
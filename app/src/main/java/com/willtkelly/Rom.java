@@ -0,0 +1,41 @@
+package com.willtkelly;
+
+/**
+ * A loaded rom image with the SHA-1 of its contents, which is how roms are
+ * identified in the cache and the rom index regardless of file name.
+ */
+public class Rom {
+
+    private final String name;
+    private final byte[] bytes;
+    private final String hash;
+
+    Rom(String name, byte[] bytes, String hash) {
+        this.name = name;
+        this.bytes = bytes;
+        this.hash = hash;
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * The image itself. Shared between everything that loaded the same
+     * contents, so it must not be modified.
+     */
+    public byte[] getBytes() {
+        return this.bytes;
+    }
+
+    public int getSize() {
+        return this.bytes.length;
+    }
+
+    /**
+     * Lower case hex SHA-1 of the contents.
+     */
+    public String getHash() {
+        return this.hash;
+    }
+}
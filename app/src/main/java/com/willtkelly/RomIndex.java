@@ -0,0 +1,277 @@
+package com.willtkelly;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A persisted catalogue of a rom library: where each rom lives, its content
+ * hash, a title, and the settings it wants (quirk profile, clock speed, key
+ * mapping). Scanning hashes only files that are new or changed since the
+ * last scan, and launching by hash or title reads just the index file.
+ *
+ * The file is tab separated, one rom per line, so settings can be edited by
+ * hand; a "-" stands for "use the default":
+ *
+ *   hash  title  quirks  hz  keymap  size  modified  path
+ */
+public class RomIndex {
+
+    public static final String DEFAULT_FILE = "roms.index";
+
+    private static final String HEADER = "# hash\ttitle\tquirks\thz\tkeymap\tsize\tmodified\tpath";
+    private static final String UNSET = "-";
+
+    public static class Entry {
+
+        private final String hash;
+        private final String path;
+        private final long size;
+        private final long modified;
+
+        private String title;
+        private String quirks;   // Quirk profile name, or null for the default
+        private int clock_hz;    // 0 for the default
+        private String keymap;   // Keyboard.setKeymap layout, or null for the default
+
+        Entry(String hash, String path, long size, long modified, String title) {
+            this.hash = hash;
+            this.path = path;
+            this.size = size;
+            this.modified = modified;
+            this.title = title;
+        }
+
+        public String getHash() {
+            return this.hash;
+        }
+
+        public String getPath() {
+            return this.path;
+        }
+
+        public String getTitle() {
+            return this.title;
+        }
+
+        public String getQuirks() {
+            return this.quirks;
+        }
+
+        public int getClockHz() {
+            return this.clock_hz;
+        }
+
+        public String getKeymap() {
+            return this.keymap;
+        }
+
+        // Settings belong to the contents, so they follow a rom that moved
+        void copySettings(Entry from) {
+            this.title = from.title;
+            this.quirks = from.quirks;
+            this.clock_hz = from.clock_hz;
+            this.keymap = from.keymap;
+        }
+    }
+
+    private final Map<String, Entry> by_path = new LinkedHashMap<>();
+
+    public static RomIndex load(Path file) throws IOException {
+        RomIndex index = new RomIndex();
+
+        try (BufferedReader in = Files.newBufferedReader(file)) {
+            String line;
+            int number = 0;
+            while ((line = in.readLine()) != null) {
+                number++;
+                if (line.isBlank() || line.startsWith("#")) continue;
+
+                String[] fields = line.split("\t", -1);
+                if (fields.length != 8) {
+                    throw new IOException(file + ":" + number + ": expected 8 fields, got " + fields.length);
+                }
+
+                // Edited by hand, so a typo is reported against its line
+                String where = file + ":" + number;
+                Entry entry = new Entry(fields[0], fields[7], parse_number(fields[5], "size", where),
+                        parse_number(fields[6], "modified time", where), fields[1]);
+                entry.clock_hz = fields[3].equals(UNSET)
+                        ? 0
+                        : (int) Math.min(parse_number(fields[3], "clock speed", where), Integer.MAX_VALUE);
+                entry.quirks = unset(fields[2]);
+                entry.keymap = unset(fields[4]);
+                index.by_path.put(entry.path, entry);
+            }
+        }
+
+        return index;
+    }
+
+    private static long parse_number(String value, String column, String where) throws IOException {
+        try {
+            long parsed = Long.parseLong(value);
+            if (parsed >= 0) return parsed;
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IOException(where + ": expected a whole number for the " + column + ", got '" + value + "'");
+    }
+
+    /**
+     * Loads the index if the file exists, otherwise starts an empty one.
+     */
+    public static RomIndex loadOrCreate(Path file) throws IOException {
+        return Files.exists(file) ? load(file) : new RomIndex();
+    }
+
+    public void save(Path file) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+
+        try (BufferedWriter out = Files.newBufferedWriter(temp)) {
+            out.write(HEADER);
+            out.newLine();
+            for (Entry entry : this.by_path.values()) {
+                out.write(String.join("\t", entry.hash, entry.title,
+                        or_unset(entry.quirks), entry.clock_hz == 0 ? UNSET : String.valueOf(entry.clock_hz),
+                        or_unset(entry.keymap), String.valueOf(entry.size), String.valueOf(entry.modified),
+                        entry.path));
+                out.newLine();
+            }
+        }
+
+        // Readers never see a half written index
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Brings the index up to date with the roms under paths (files,
+     * directories or zip archives). Unchanged files keep their entry
+     * without being read; entries for files that are gone are dropped.
+     * Returns how many roms had to be read and hashed.
+     */
+    public int scan(List<String> paths) throws IOException {
+        Map<String, Entry> by_hash = new HashMap<>();
+        for (Entry entry : this.by_path.values()) {
+            by_hash.putIfAbsent(entry.hash, entry);
+        }
+
+        Map<String, Entry> scanned = new LinkedHashMap<>();
+        int hashed = 0;
+
+        for (String root : paths) {
+            for (String name : RomLoader.list(root)) {
+                long[] stamp = stamp(name);
+                Entry known = this.by_path.get(name);
+                if (known != null && known.size == stamp[0] && known.modified == stamp[1]) {
+                    scanned.put(name, known);
+                    continue;
+                }
+
+                Rom rom;
+                try {
+                    rom = RomLoader.load(name);
+                } catch (IOException e) {
+                    System.err.println("Skipping " + name + ": " + e.getMessage());
+                    continue;
+                }
+                hashed++;
+
+                Entry entry = new Entry(rom.getHash(), name, stamp[0], stamp[1], title_of(name));
+                Entry same = by_hash.get(rom.getHash());
+                if (same != null) {
+                    entry.copySettings(same);
+                }
+                scanned.put(name, entry);
+            }
+        }
+
+        this.by_path.clear();
+        this.by_path.putAll(scanned);
+        return hashed;
+    }
+
+    public Collection<Entry> getEntries() {
+        return this.by_path.values();
+    }
+
+    /**
+     * Finds a rom by full hash, a unique hash prefix of at least 8
+     * characters, or its title (ignoring case). Null if nothing or more than
+     * one rom matches.
+     */
+    public Entry find(String key) {
+        String lower = key.toLowerCase(Locale.ROOT);
+        List<Entry> matches = new ArrayList<>();
+
+        for (Entry entry : this.by_path.values()) {
+            if (entry.hash.equals(lower) || entry.title.toLowerCase(Locale.ROOT).equals(lower)) {
+                return entry;
+            }
+            if (lower.length() >= 8 && entry.hash.startsWith(lower)) {
+                matches.add(entry);
+            }
+        }
+
+        return matches.size() == 1 ? matches.get(0) : null;
+    }
+
+    /**
+     * Scans the given roots into the index file, e.g.
+     * RomIndex --scan my_roms/,more.zip [--index roms.index]
+     */
+    public static void main(String[] args) throws IOException {
+        Options options = Options.parse(args);
+        Path file = Path.of(options.get("index", DEFAULT_FILE));
+
+        if (!options.has("scan")) {
+            System.out.println("Please include roots to scan... ( --scan dir,archive.zip,... [--index " + DEFAULT_FILE + "] )");
+            return;
+        }
+
+        RomIndex index = loadOrCreate(file);
+        long start = System.nanoTime();
+        int hashed = index.scan(List.of(options.get("scan", "").split(",")));
+        long elapsed = System.nanoTime() - start;
+        index.save(file);
+
+        System.out.printf("Indexed %d roms (%d hashed) in %.1f ms to %s%n",
+                index.getEntries().size(), hashed, elapsed / 1e6, file);
+    }
+
+    // Size and modification time of the file behind a rom name, which for
+    // an archive entry is the archive itself
+    private static long[] stamp(String name) throws IOException {
+        int separator = name.indexOf(RomLoader.ARCHIVE_SEPARATOR);
+        Path file = Path.of(separator >= 0 ? name.substring(0, separator) : name);
+        if (!Files.exists(file)) {
+            return new long[] { -1, -1 };
+        }
+        return new long[] { Files.size(file), Files.getLastModifiedTime(file).toMillis() };
+    }
+
+    private static String title_of(String name) {
+        String file = name.substring(Math.max(name.lastIndexOf('/'), name.lastIndexOf('\\')) + 1);
+        int dot = file.lastIndexOf('.');
+        return (dot > 0 ? file.substring(0, dot) : file).replace('_', ' ').replace('\t', ' ');
+    }
+
+    private static String unset(String field) {
+        return field.equals(UNSET) ? null : field;
+    }
+
+    private static String or_unset(String value) {
+        return value == null ? UNSET : value;
+    }
+}
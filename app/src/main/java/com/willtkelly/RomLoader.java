@@ -1,17 +1,249 @@
-
 package com.willtkelly;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.stream.Stream;
 
+/**
+ * Loads roms from the filesystem, from inside zip archives, or from the
+ * classpath, in that order of preference. A path of the form
+ * "archive.zip!/game.ch8" names an entry in an archive, which is read in
+ * place without extracting it.
+ *
+ * Loaded images are cached by content hash, so running the same rom many
+ * times, or the same contents under different names, reads and keeps it
+ * once. Files are only read again when their size or modification time
+ * changes.
+ */
 public class RomLoader {
 
+    // Everything from 0x200 to the end of XO-CHIP's 64 KB memory. Plain
+    // CHIP-8 only reaches the first 4 KB of it
+    public static final int MAX_ROM_SIZE = 0x10000 - 0x200;
+
+    public static final String ARCHIVE_SEPARATOR = "!/";
+
+    private static final Map<String, Rom> BY_HASH = new ConcurrentHashMap<>();
+    private static final Map<String, Rom> BY_SOURCE = new ConcurrentHashMap<>();
+
     public static byte[] loadRom(String path) throws IOException {
-        try (InputStream is = ClassLoader.getSystemResourceAsStream(path)) {
-            if (is == null) {
-                throw new IOException("Resource not found: " + path);
+        return load(path).getBytes();
+    }
+
+    /**
+     * Loads one rom from a file, an archive entry, or the classpath.
+     */
+    public static Rom load(String path) throws IOException {
+        int separator = path.indexOf(ARCHIVE_SEPARATOR);
+        if (separator >= 0) {
+            Path archive = Path.of(path.substring(0, separator));
+            String entry = path.substring(separator + ARCHIVE_SEPARATOR.length());
+            try (FileSystem zip = FileSystems.newFileSystem(archive)) {
+                return load_file(zip.getPath(entry), path, source_key(archive) + ARCHIVE_SEPARATOR + entry);
+            }
+        }
+
+        Path file = Path.of(path);
+        if (Files.isRegularFile(file)) {
+            return load_file(file, path, source_key(file));
+        }
+
+        return load_resource(path);
+    }
+
+    /**
+     * Names every .ch8 rom under a directory, inside a zip archive, or under
+     * a directory on the classpath, sorted, in a form load accepts. Anything
+     * else is taken to name a single rom.
+     */
+    public static List<String> list(String path) throws IOException {
+        Path file = Path.of(path);
+
+        if (Files.isDirectory(file)) {
+            return list_tree(file, null);
+        }
+        if (is_archive(file)) {
+            try (FileSystem zip = FileSystems.newFileSystem(file)) {
+                return list_tree(zip.getPath("/"), file);
+            }
+        }
+
+        // Such as the bundled roms, which are only on the classpath
+        URL url = ClassLoader.getSystemResource(path);
+        if (url != null && is_directory(url)) {
+            return list_resources(path, url);
+        }
+
+        return List.of(path);
+    }
+
+    static void checkSize(long size, String name) throws IOException {
+        if (size > MAX_ROM_SIZE) {
+            throw new IOException("Rom too large: " + name + " is " + size
+                    + " bytes, the program area holds " + MAX_ROM_SIZE);
+        }
+    }
+
+    private static List<String> list_tree(Path root, Path archive) throws IOException {
+        try (Stream<Path> walk = Files.walk(root)) {
+            return walk.filter(Files::isRegularFile)
+                    .filter(file -> file.toString().endsWith(".ch8"))
+                    .sorted()
+                    .map(file -> archive == null
+                            ? file.toString()
+                            : archive + ARCHIVE_SEPARATOR + root.relativize(file))
+                    .toList();
+        }
+    }
+
+    // Resource names of the roms under a classpath directory, in a folder or a jar
+    private static List<String> list_resources(String path, URL url) throws IOException {
+        String prefix = path.endsWith("/") ? path : path + "/";
+
+        if (url.getProtocol().equals("jar")) {
+            JarURLConnection connection = (JarURLConnection) url.openConnection();
+            connection.setUseCaches(false);
+            String entry = connection.getEntryName().endsWith("/")
+                    ? connection.getEntryName()
+                    : connection.getEntryName() + "/";
+            try (JarFile jar = connection.getJarFile()) {
+                return jar.stream()
+                        .filter(file -> !file.isDirectory())
+                        .map(JarEntry::getName)
+                        .filter(name -> name.startsWith(entry) && name.endsWith(".ch8"))
+                        .map(name -> prefix + name.substring(entry.length()))
+                        .sorted()
+                        .toList();
+            }
+        }
+
+        Path root = to_path(url);
+        try (Stream<Path> walk = Files.walk(root)) {
+            return walk.filter(Files::isRegularFile)
+                    .filter(file -> file.toString().endsWith(".ch8"))
+                    .map(file -> prefix + root.relativize(file).toString().replace(File.separatorChar, '/'))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    private static boolean is_directory(URL url) throws IOException {
+        return switch (url.getProtocol()) {
+            case "file" -> Files.isDirectory(to_path(url));
+            case "jar" -> {
+                JarURLConnection connection = (JarURLConnection) url.openConnection();
+                JarEntry entry = connection.getJarEntry();
+                yield entry != null && entry.isDirectory();
+            }
+            default -> false;
+        };
+    }
+
+    private static Path to_path(URL url) throws IOException {
+        try {
+            return Path.of(url.toURI());
+        } catch (URISyntaxException e) {
+            throw new IOException("Bad classpath location: " + url, e);
+        }
+    }
+
+    private static Rom load_file(Path file, String name, String source) throws IOException {
+        Rom cached = BY_SOURCE.get(source);
+        if (cached != null) {
+            return cached;
+        }
+
+        byte[] bytes;
+        if (file.getFileSystem() == FileSystems.getDefault()) {
+            // Roms are at most MAX_ROM_SIZE, under 64 KB, so one read into a
+            // heap buffer is still cheaper than setting up and tearing down a
+            // mapping
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                checkSize(channel.size(), name);
+                ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+                while (buffer.hasRemaining() && channel.read(buffer) >= 0) { }
+                bytes = buffer.array();
             }
-            return is.readAllBytes();
+        } else {
+            checkSize(Files.size(file), name);
+            bytes = Files.readAllBytes(file);
+        }
+
+        Rom rom = intern(name, bytes);
+        BY_SOURCE.put(source, rom);
+        return rom;
+    }
+
+    private static Rom load_resource(String path) throws IOException {
+        Rom cached = BY_SOURCE.get("classpath:" + path);
+        if (cached != null) {
+            return cached;
         }
+
+        URL url = ClassLoader.getSystemResource(path);
+        if (url == null) {
+            throw new IOException("Rom not found: " + path);
+        }
+        // Opening a directory would read its listing as the rom
+        if (is_directory(url)) {
+            throw new IOException("Not a rom: " + path + " is a directory");
+        }
+
+        try (InputStream is = url.openStream()) {
+            byte[] bytes = is.readNBytes(MAX_ROM_SIZE + 1);
+            checkSize(bytes.length, path);
+
+            Rom rom = intern(path, bytes);
+            BY_SOURCE.put("classpath:" + path, rom);
+            return rom;
+        }
+    }
+
+    // One shared image per distinct contents
+    private static Rom intern(String name, byte[] bytes) {
+        String hash = hash(bytes);
+        Rom rom = BY_HASH.putIfAbsent(hash, new Rom(name, bytes, hash));
+        return rom != null ? rom : BY_HASH.get(hash);
+    }
+
+    /**
+     * SHA-1 of the contents as lower case hex, the same hash the common
+     * CHIP-8 rom databases use.
+     */
+    public static String hash(byte[] bytes) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-1").digest(bytes));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // Every JVM ships SHA-1
+        }
+    }
+
+    // Identifies a file as it is on disk now, so edits are picked up
+    private static String source_key(Path file) throws IOException {
+        return file.toAbsolutePath() + "@" + Files.size(file) + ":" + Files.getLastModifiedTime(file).toMillis();
+    }
+
+    private static boolean is_archive(Path file) {
+        String name = file.getFileName() == null ? "" : file.getFileName().toString().toLowerCase();
+        return Files.isRegularFile(file) && (name.endsWith(".zip") || name.endsWith(".jar"));
     }
 }
@@ -0,0 +1,54 @@
+package com.willtkelly;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * A slot holding one snapshot of a Chip8. The buffer is allocated on the
+ * first capture and kept, so capturing and restoring allocate nothing and
+ * only copy ~6.5 KB (~68 KB for XO-CHIP's larger memory).
+ */
+public class SaveState {
+
+    private ByteBuffer buffer = ByteBuffer.allocate(0);
+    private boolean saved = false;
+
+    public void capture(Chip8 chip) {
+        if (this.buffer.capacity() != chip.getStateSize()) {
+            this.buffer = ByteBuffer.allocate(chip.getStateSize());
+        }
+        this.buffer.clear();
+        chip.saveState(this.buffer);
+        this.saved = true;
+    }
+
+    /**
+     * Puts the chip back to the captured state. Returns false if nothing
+     * has been captured yet.
+     */
+    public boolean restore(Chip8 chip) {
+        if (!this.saved) {
+            return false;
+        }
+
+        this.buffer.rewind();
+        chip.loadState(this.buffer);
+        return true;
+    }
+
+    public boolean isSaved() {
+        return this.saved;
+    }
+
+    public void writeTo(Path path) throws IOException {
+        Files.write(path, this.buffer.array());
+    }
+
+    public void readFrom(Path path) throws IOException {
+        // The state checks its own header and size when restored
+        this.buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+        this.saved = true;
+    }
+}
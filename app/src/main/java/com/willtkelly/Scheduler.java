@@ -0,0 +1,214 @@
+package com.willtkelly;
+
+/**
+ * Runs the CPU at a configurable instruction rate, independent of how often
+ * the renderer calls in. The delay and sound timers are ticked at a fixed
+ * 60 Hz, separately from the instruction clock.
+ */
+public class Scheduler {
+
+    public static final int UNLIMITED = 0;
+    public static final int DEFAULT_CLOCK_HZ = 700;
+    public static final int TIMER_HZ = 60;
+    public static final int MAX_SPEED = 0;
+
+    private static final float TIMER_PERIOD = 1f / TIMER_HZ;
+
+    // Longest frame we try to catch up on, so a stall doesn't snowball
+    private static final float MAX_FRAME_DELTA = 0.25f;
+
+    // Unlimited mode runs the CPU for this long each frame, then hands back
+    private static final long UNLIMITED_SLICE_NANOS = 12_000_000L;
+    private static final int UNLIMITED_BATCH = 1024;
+
+    private final Chip8 chip;
+
+    private int clock_hz;
+    private int speed = 1; // Multiple of clock_hz actually run, or MAX_SPEED
+    private int cycles_per_tick;
+    private int cycles_until_tick;
+    private int tick_remainder; // clock_hz % 60 spread over the ticks, so the timers keep 60 Hz exactly
+
+    private double cycle_budget = 0; // Fractional cycles carried between frames
+    private float timer_accumulator = 0f;
+
+    private long cycles = 0; // Instructions run since start, stamps recorded input
+    private long timer_ticks = 0;
+
+    public Scheduler(Chip8 chip, int clock_hz) {
+        this.chip = chip;
+        this.setClockHz(clock_hz);
+    }
+
+    /**
+     * Parses a clock speed given on the command line, either a number of
+     * instructions per second or "unlimited".
+     */
+    public static int parseClockHz(String value) {
+        if (value.equalsIgnoreCase("unlimited")) {
+            return UNLIMITED;
+        }
+
+        int hz = Integer.parseInt(value);
+        if (hz <= 0) {
+            throw new IllegalArgumentException("Clock speed must be positive: " + value);
+        }
+        return hz;
+    }
+
+    /**
+     * Parses a speed multiplier given on the command line, either a whole
+     * number or "max".
+     */
+    public static int parseSpeed(String value) {
+        if (value.equalsIgnoreCase("max")) {
+            return MAX_SPEED;
+        }
+
+        int speed = Integer.parseInt(value);
+        if (speed <= 0) {
+            throw new IllegalArgumentException("Speed must be positive: " + value);
+        }
+        return speed;
+    }
+
+    public final void setClockHz(int clock_hz) {
+        this.clock_hz = clock_hz;
+        this.cycles_per_tick = Math.max(1, clock_hz / TIMER_HZ);
+        this.cycles_until_tick = this.cycles_per_tick;
+        this.tick_remainder = 0;
+        this.cycle_budget = 0;
+        this.timer_accumulator = 0f;
+    }
+
+    public int getClockHz() {
+        return this.clock_hz;
+    }
+
+    public long getCycles() {
+        return this.cycles;
+    }
+
+    public long getTimerTicks() {
+        return this.timer_ticks;
+    }
+
+    public boolean isUnlimited() {
+        return this.clock_hz == UNLIMITED;
+    }
+
+    /**
+     * Runs N times faster than clock_hz, timers included, or as fast as the
+     * host allows with MAX_SPEED. Unlike an unlimited clock the timers stay
+     * locked to the instruction count, so the program sees the same machine
+     * fast forwarded.
+     */
+    public void setSpeed(int speed) {
+        this.speed = speed;
+    }
+
+    public int getSpeed() {
+        return this.speed;
+    }
+
+    /**
+     * True when update runs for a slice of wall time rather than a number
+     * of cycles, so the caller doesn't need to pace it.
+     */
+    public boolean isUncapped() {
+        return this.isUnlimited() || this.speed == MAX_SPEED;
+    }
+
+    /**
+     * True when running on can't change anything before the next frame:
+     * the program is idle, or on an unlimited clock waits for a timer tick,
+     * which only comes with wall time. Uncapped callers can sleep until then.
+     */
+    public boolean isStalled() {
+        return this.chip.isIdle() || (this.isUnlimited() && this.chip.isWaitingForTick());
+    }
+
+    /**
+     * Advances the machine by delta seconds of emulated time.
+     */
+    public void update(float delta) {
+        delta = Math.min(delta, MAX_FRAME_DELTA);
+
+        if (this.isUnlimited()) {
+            this.runUnlimited(delta);
+            return;
+        }
+        if (this.speed == MAX_SPEED) {
+            this.runMaxSpeed();
+            return;
+        }
+
+        this.cycle_budget += (double) delta * this.clock_hz * this.speed;
+        int cycles = (int) this.cycle_budget;
+        this.cycle_budget -= cycles;
+
+        this.runCycles(cycles);
+    }
+
+    /**
+     * Executes a fixed number of instructions, ticking the timers every
+     * clock_hz / 60 instructions on average. Since the timers are locked to the
+     * instruction count, the result does not depend on wall-clock time.
+     */
+    public void runCycles(long cycles) {
+        while (cycles > 0) {
+            int n = (int) Math.min(cycles, this.cycles_until_tick);
+            this.chip.run(n);
+            this.cycles += n;
+            cycles -= n;
+
+            this.cycles_until_tick -= n;
+            if (this.cycles_until_tick == 0) {
+                this.chip.tickTimers();
+                this.timer_ticks++;
+                this.cycles_until_tick = next_tick_period();
+            }
+        }
+    }
+
+    // Whole cycles until the next tick, one longer every so often to make
+    // up the fraction of clock_hz / 60 that doesn't divide evenly
+    private int next_tick_period() {
+        if (this.clock_hz < TIMER_HZ) {
+            return this.cycles_per_tick;
+        }
+
+        this.tick_remainder += this.clock_hz % TIMER_HZ;
+        if (this.tick_remainder >= TIMER_HZ) {
+            this.tick_remainder -= TIMER_HZ;
+            return this.cycles_per_tick + 1;
+        }
+        return this.cycles_per_tick;
+    }
+
+    private void runMaxSpeed() {
+        // Whole timer periods keep the ticks where they'd fall at clock_hz.
+        // An idle program stops the slice, nothing happens until a key
+        long deadline = System.nanoTime() + UNLIMITED_SLICE_NANOS;
+        do {
+            this.runCycles(this.cycles_until_tick);
+        } while (System.nanoTime() < deadline && !this.isStalled());
+    }
+
+    private void runUnlimited(float delta) {
+        // No instruction clock to lock to, so the timers follow the wall clock
+        this.timer_accumulator += delta;
+        while (this.timer_accumulator >= TIMER_PERIOD) {
+            this.chip.tickTimers();
+            this.timer_ticks++;
+            this.timer_accumulator -= TIMER_PERIOD;
+        }
+
+        // Only what actually ran counts, the rest of a batch may have been
+        // spent waiting
+        long deadline = System.nanoTime() + UNLIMITED_SLICE_NANOS;
+        do {
+            this.cycles += this.chip.run(UNLIMITED_BATCH);
+        } while (System.nanoTime() < deadline && !this.isStalled());
+    }
+}
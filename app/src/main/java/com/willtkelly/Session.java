@@ -0,0 +1,162 @@
+package com.willtkelly;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * One machine hosted by a SessionServer, and the connection it streams to.
+ * The server's pool steps it a 60 Hz frame at a time, key changes arrive
+ * on the connection's reader thread, and frames go out on a writer thread
+ * of its own, so a slow client only ever holds up its own frames.
+ *
+ * Besides the chip, 4 KB of memory and the 2 KB framebuffer, a session
+ * only keeps the frame it is sending, allocated on first use.
+ */
+class Session {
+
+    // Type, cycles, flags, planes, dirty rows
+    private static final int FRAME_HEADER = 1 + 8 + 1 + 1 + 8;
+
+    private static final int FLAG_HIRES = 1;
+    private static final int FLAG_SOUND = 2;
+
+    private final int id;
+    private final Chip8 chip;
+    private final Scheduler scheduler;
+    private final HeadlessInput input = new HeadlessInput();
+    private final int planes;
+    private final Socket socket;
+
+    private ByteBuffer out;
+    private boolean sent_sound = false;
+
+    // Set by step once out holds a frame, cleared by the writer once it's
+    // gone. Until then new frames wait, their rows stay marked dirty
+    private volatile boolean sending = false;
+    private volatile boolean closed = false;
+    private Thread writer;
+
+    Session(int id, Chip8 chip, int clock_hz, Socket socket) {
+        this.id = id;
+        this.chip = chip;
+        this.scheduler = new Scheduler(chip, clock_hz);
+        this.planes = chip.getQuirks().xochip ? FrameBuffer.PLANES : 1;
+        this.socket = socket;
+        chip.setInput(this.input);
+    }
+
+    int getId() {
+        return this.id;
+    }
+
+    boolean isClosed() {
+        return this.closed;
+    }
+
+    void start() {
+        this.writer = Thread.ofVirtual().name("session-" + this.id).start(this::write_loop);
+    }
+
+    void setKeys(int mask) {
+        this.input.setKeyMask(mask);
+    }
+
+    /**
+     * Runs one frame's worth of cycles and queues the rows it changed.
+     * Only ever called from one pool thread at a time.
+     */
+    void step() {
+        if (this.closed) return;
+
+        try {
+            this.scheduler.update(1f / Scheduler.TIMER_HZ);
+        } catch (RuntimeException e) {
+            System.err.println("Session " + this.id + " stopped: " + e);
+            close();
+            return;
+        }
+
+        if (this.sending) return;
+
+        FrameBuffer frame = this.chip.getFrameBuffer();
+        long dirty = frame.takeDirtyRows();
+        if (frame.getHeight() < 64) {
+            dirty &= (1L << frame.getHeight()) - 1;
+        }
+        boolean sound = this.chip.isSoundOn();
+        if (dirty == 0 && sound == this.sent_sound) return;
+
+        encode(frame, dirty, sound);
+        this.sent_sound = sound;
+        this.sending = true;
+        LockSupport.unpark(this.writer);
+    }
+
+    /*
+     * MSG_FRAME: cycles run (long), flags (byte, 1 = high resolution,
+     * 2 = sound on), planes sent (byte), dirty rows (long, bit n = row n),
+     * then for each dirty row from the top, for each plane, its words
+     */
+    private void encode(FrameBuffer frame, long dirty, boolean sound) {
+        int words = frame.getWordsPerRow();
+        int size = FRAME_HEADER + Long.bitCount(dirty) * this.planes * words * 8;
+        if (this.out == null || this.out.capacity() < size) {
+            // Room for a whole screen, so it only grows on a mode change
+            this.out = ByteBuffer.allocate(FRAME_HEADER + frame.getHeight() * this.planes * words * 8);
+        }
+
+        ByteBuffer out = this.out;
+        out.clear();
+        out.put(SessionServer.MSG_FRAME);
+        out.putLong(this.scheduler.getCycles());
+        out.put((byte) ((frame.isHires() ? FLAG_HIRES : 0) | (sound ? FLAG_SOUND : 0)));
+        out.put((byte) this.planes);
+        out.putLong(dirty);
+
+        for (long rows = dirty; rows != 0; rows &= rows - 1) {
+            int y = Long.numberOfTrailingZeros(rows);
+            for (int p = 0; p < this.planes; p++) {
+                long[] plane = frame.getPlane(p);
+                for (int w = 0; w < words; w++) {
+                    out.putLong(plane[y * words + w]);
+                }
+            }
+        }
+        out.flip();
+    }
+
+    private void write_loop() {
+        try {
+            OutputStream stream = this.socket.getOutputStream();
+            while (!this.closed) {
+                if (!this.sending) {
+                    LockSupport.park(this);
+                    continue;
+                }
+
+                stream.write(this.out.array(), 0, this.out.limit());
+                stream.flush();
+                this.sending = false;
+            }
+        } catch (IOException e) {
+            // The client went away, the reader sees it too
+        } finally {
+            close();
+        }
+    }
+
+    void close() {
+        if (this.closed) return;
+
+        this.closed = true;
+        LockSupport.unpark(this.writer);
+        try {
+            this.socket.close();
+        } catch (IOException e) {
+            // Closing anyway
+        }
+    }
+}
@@ -0,0 +1,305 @@
+package com.willtkelly;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hosts many emulator sessions in one process, one per connection on a
+ * local socket. Every 60 Hz frame all sessions are stepped on a shared
+ * work-stealing pool, each running its own clock's worth of cycles, and
+ * each streams the framebuffer rows that changed back to its client.
+ *
+ * The protocol is binary and big-endian. A client opens with MSG_OPEN and
+ * gets MSG_OPENED back, or MSG_ERROR and a closed connection. After that it
+ * sends MSG_KEYS whenever the keys change and receives MSG_FRAME whenever
+ * the screen or sound does. Closing the connection ends the session. See
+ * LoopbackClient for the other end.
+ */
+public class SessionServer implements Closeable {
+
+    public static final int DEFAULT_PORT = 8088;
+
+    // The highest clock a session gets, so one can't starve the rest
+    public static final int DEFAULT_MAX_CLOCK_HZ = 20_000;
+
+    // Client to server
+    public static final byte MSG_OPEN = 1; // quirks (byte, profile ordinal), clock hz (int), seed (long), rom length (int), rom
+    public static final byte MSG_KEYS = 2; // key mask (short, bit n = key n)
+
+    // Server to client
+    public static final byte MSG_OPENED = 1; // session id (int), clock hz granted (int)
+    public static final byte MSG_FRAME = 2;  // see Session.encode
+    public static final byte MSG_ERROR = 3;  // reason (UTF), then the connection closes
+
+    private static final long FRAME_NANOS = 1_000_000_000L / Scheduler.TIMER_HZ;
+    private static final long MAX_LAG_NANOS = 250_000_000L;
+
+    // Sessions per pool task before it splits, enough to outweigh the split
+    private static final int STEP_BATCH = 32;
+
+    private static final Session[] NO_SESSIONS = new Session[0];
+
+    private final ServerSocket server_socket;
+    private final ForkJoinPool pool;
+    private final int max_clock_hz;
+    private final Map<Integer, Session> sessions = new ConcurrentHashMap<>();
+    private final AtomicInteger next_id = new AtomicInteger(1);
+
+    private volatile boolean running = false;
+    private volatile long step_nanos = 0;
+    private volatile long late_frames = 0;
+    private Thread acceptor;
+    private Thread ticker;
+
+    /**
+     * Listens on the loopback address. Port 0 picks a free one.
+     */
+    public SessionServer(int port, int threads, int max_clock_hz) throws IOException {
+        this.server_socket = new ServerSocket(port, 256, InetAddress.getLoopbackAddress());
+        this.pool = new ForkJoinPool(threads);
+        this.max_clock_hz = max_clock_hz;
+    }
+
+    public static void main(String[] args) throws IOException {
+
+        Options options = Options.parse(args);
+
+        int port = options.getInt("port", DEFAULT_PORT);
+        int threads = options.getInt("threads", Runtime.getRuntime().availableProcessors());
+        int max_clock_hz = options.getInt("max-hz", DEFAULT_MAX_CLOCK_HZ);
+
+        SessionServer server = new SessionServer(port, threads, max_clock_hz);
+        server.start();
+        System.out.println("Listening on " + server.server_socket.getLocalSocketAddress()
+                + " with " + threads + " threads, up to " + max_clock_hz + " Hz per session");
+
+        while (true) {
+            LockSupport.parkNanos(5_000_000_000L);
+            System.out.printf("Sessions: %d, step %.2f ms per frame, %d late frames%n",
+                    server.getSessionCount(), server.getStepNanos() / 1e6, server.getLateFrames());
+        }
+    }
+
+    public int getPort() {
+        return this.server_socket.getLocalPort();
+    }
+
+    public int getSessionCount() {
+        return this.sessions.size();
+    }
+
+    /**
+     * How long stepping every session took on the last frame.
+     */
+    public long getStepNanos() {
+        return this.step_nanos;
+    }
+
+    /**
+     * Frames dropped because stepping fell more than a few frames behind.
+     */
+    public long getLateFrames() {
+        return this.late_frames;
+    }
+
+    public void start() {
+        this.running = true;
+        this.acceptor = Thread.ofPlatform().name("session-accept").daemon().start(this::accept_loop);
+        this.ticker = Thread.ofPlatform().name("session-ticker").daemon().start(this::tick_loop);
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.running = false;
+        this.server_socket.close();
+        for (Session session : this.sessions.values()) {
+            session.close();
+        }
+        if (this.ticker != null) {
+            LockSupport.unpark(this.ticker);
+            try {
+                this.ticker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        this.pool.shutdown();
+    }
+
+    private void accept_loop() {
+        while (this.running) {
+            Socket socket;
+            try {
+                socket = this.server_socket.accept();
+            } catch (IOException e) {
+                if (this.running) System.err.println("Accept failed: " + e.getMessage());
+                continue;
+            }
+
+            // Blocked on reads most of the time, so a virtual thread each
+            Thread.ofVirtual().name("session-reader").start(() -> serve(socket));
+        }
+    }
+
+    private void serve(Socket socket) {
+        Session session = null;
+        try (socket) {
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64));
+            session = open(socket, in);
+            if (session == null) return;
+
+            while (!session.isClosed()) {
+                int type = in.read();
+                if (type == -1) break;
+                if (type != MSG_KEYS) {
+                    throw new IOException("Unknown message " + type);
+                }
+                session.setKeys(in.readUnsignedShort());
+            }
+        } catch (EOFException e) {
+            // Gone mid message, same as a close
+        } catch (IOException e) {
+            if (session == null || !session.isClosed()) {
+                System.err.println("Session connection failed: " + e.getMessage());
+            }
+        } finally {
+            if (session != null) {
+                session.close();
+                this.sessions.remove(session.getId());
+            }
+        }
+    }
+
+    // Reads MSG_OPEN and starts the session, or turns the client away
+    private Session open(Socket socket, DataInputStream in) throws IOException {
+        DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+
+        int type = in.read();
+        if (type != MSG_OPEN) {
+            reject(out, "Expected an open message");
+            return null;
+        }
+
+        int quirks_index = in.readUnsignedByte();
+        int clock_hz = in.readInt();
+        long seed = in.readLong();
+        int length = in.readInt();
+        if (length < 0 || length > RomLoader.MAX_ROM_SIZE) {
+            reject(out, "Rom too large: " + length + " bytes");
+            return null;
+        }
+        byte[] rom = in.readNBytes(length);
+        if (rom.length != length) {
+            throw new EOFException();
+        }
+
+        QuirkProfile[] profiles = QuirkProfile.values();
+        if (quirks_index >= profiles.length) {
+            reject(out, "Unknown quirk profile " + quirks_index);
+            return null;
+        }
+        if (clock_hz <= 0) {
+            reject(out, "Clock speed must be positive: " + clock_hz);
+            return null;
+        }
+        clock_hz = Math.min(clock_hz, this.max_clock_hz);
+
+        Chip8 chip = new Chip8(rom);
+        try {
+            chip.setQuirks(profiles[quirks_index]);
+        } catch (IllegalArgumentException e) {
+            reject(out, e.getMessage());
+            return null;
+        }
+        chip.setSeed(seed);
+
+        Session session = new Session(this.next_id.getAndIncrement(), chip, clock_hz, socket);
+        out.writeByte(MSG_OPENED);
+        out.writeInt(session.getId());
+        out.writeInt(clock_hz);
+        out.flush();
+
+        // Frames only go out from the writer thread from here on
+        session.start();
+        this.sessions.put(session.getId(), session);
+        return session;
+    }
+
+    private static void reject(DataOutputStream out, String reason) throws IOException {
+        out.writeByte(MSG_ERROR);
+        out.writeUTF(reason);
+        out.flush();
+    }
+
+    private void tick_loop() {
+        long deadline = System.nanoTime();
+
+        while (this.running) {
+            long start = System.nanoTime();
+            Session[] all = this.sessions.values().toArray(NO_SESSIONS);
+            if (all.length > 0) {
+                this.pool.invoke(new StepTask(all, 0, all.length));
+            }
+            this.step_nanos = System.nanoTime() - start;
+
+            deadline += FRAME_NANOS;
+            long wait = deadline - System.nanoTime();
+            if (wait < -MAX_LAG_NANOS) {
+                // Overloaded, give up on the missed frames instead of
+                // running them back to back
+                this.late_frames += -wait / FRAME_NANOS;
+                deadline = System.nanoTime();
+            }
+            while (wait > 0 && this.running) {
+                LockSupport.parkNanos(wait);
+                wait = deadline - System.nanoTime();
+            }
+        }
+    }
+
+    /**
+     * Steps a range of sessions, splitting so idle workers can steal half.
+     * Sessions waiting on a key or spinning on a jump cost next to nothing,
+     * so the split evens out the busy ones.
+     */
+    private static class StepTask extends RecursiveAction {
+
+        private final Session[] sessions;
+        private final int from;
+        private final int to;
+
+        StepTask(Session[] sessions, int from, int to) {
+            this.sessions = sessions;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.to - this.from <= STEP_BATCH) {
+                for (int i = this.from; i < this.to; i++) {
+                    this.sessions[i].step();
+                }
+                return;
+            }
+
+            int middle = (this.from + this.to) >>> 1;
+            invokeAll(new StepTask(this.sessions, this.from, middle),
+                    new StepTask(this.sessions, middle, this.to));
+        }
+    }
+}
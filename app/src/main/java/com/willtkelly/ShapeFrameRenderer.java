@@ -0,0 +1,94 @@
+package com.willtkelly;
+
+import com.badlogic.gdx.graphics.Color;
+import com.badlogic.gdx.graphics.glutils.ShapeRenderer;
+
+/**
+ * The original renderer: one ShapeRenderer rect per lit pixel, up to 2048
+ * a frame in low resolution and 8192 in high.
+ */
+class ShapeFrameRenderer implements FrameRenderer {
+
+    private final int scale;
+
+    private final ShapeRenderer shapeRenderer = new ShapeRenderer();
+    private final Color[] colors = new Color[PALETTE.length];
+
+    // x, y and colour of each lit pixel, refilled by frame_to_rects when the
+    // screen changes
+    private final float[] rects = new float[2 * FrameBuffer.HIRES_WIDTH * FrameBuffer.HIRES_HEIGHT];
+    private final byte[] rect_colors = new byte[FrameBuffer.HIRES_WIDTH * FrameBuffer.HIRES_HEIGHT];
+    private int count = 0;
+    private float size;
+
+    ShapeFrameRenderer(int scale) {
+        this.scale = scale;
+        for (int i = 0; i < PALETTE.length; i++) {
+            this.colors[i] = new Color(PALETTE[i]);
+        }
+    }
+
+    @Override
+    public void draw(FrameBuffer frame, long dirty_rows) {
+        // The back buffer still has to be redrawn every frame, but the rects
+        // only need working out again when something changed
+        if (dirty_rows != 0) {
+            // High resolution pixels are half the size, so either fills the window
+            this.size = (float) this.scale * FrameBuffer.LORES_WIDTH / frame.getWidth();
+            this.count = frame_to_rects(frame, this.size, this.rects, this.rect_colors);
+        }
+
+        shapeRenderer.begin(ShapeRenderer.ShapeType.Filled);
+
+        // Drawing commands here
+        int color = -1;
+        for (int i = 0; i < this.count; i++) {
+            if (this.rect_colors[i] != color) {
+                color = this.rect_colors[i];
+                shapeRenderer.setColor(this.colors[color]);
+            }
+            shapeRenderer.rect(this.rects[2 * i], this.rects[2 * i + 1], this.size, this.size);
+        }
+
+        shapeRenderer.end();
+    }
+
+    /**
+     * Converts the framebuffer into the bottom-left corner of one rect per lit
+     * pixel, as x, y pairs in rects, with its PALETTE index in colors.
+     * Returns the number of rects.
+     */
+    static int frame_to_rects(FrameBuffer frame, float size, float[] rects, byte[] colors) {
+        int count = 0;
+        int rows = frame.getHeight();
+        int words = frame.getWordsPerRow();
+        long[] plane0 = frame.getPlane(0);
+        long[] plane1 = frame.getPlane(1);
+
+        for (int row = 0; row < rows; row++) {
+            for (int w = 0; w < words; w++) {
+                long low = plane0[row * words + w];
+                long high = plane1[row * words + w];
+
+                // Only visit the lit pixels, leftmost first
+                long bits = low | high;
+                while (bits != 0) {
+                    int bit = Long.numberOfLeadingZeros(bits);
+                    long mask = Long.MIN_VALUE >>> bit;
+                    rects[count * 2] = (w * 64 + bit) * size;
+                    rects[count * 2 + 1] = (rows - 1 - row) * size; // Flip as libgdx is bottom-left
+                    colors[count] = (byte) (((low & mask) != 0 ? 1 : 0) | ((high & mask) != 0 ? 2 : 0));
+                    count++;
+                    bits &= ~mask;
+                }
+            }
+        }
+
+        return count;
+    }
+
+    @Override
+    public void dispose() {
+        shapeRenderer.dispose();
+    }
+}
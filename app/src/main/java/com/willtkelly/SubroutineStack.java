@@ -1,6 +1,8 @@
 
 package com.willtkelly;
 
+import java.nio.ByteBuffer;
+
 public class SubroutineStack {
 
     private final int[] data;
@@ -48,4 +50,32 @@ public class SubroutineStack {
         return this.stack_pointer == this.capacity;
     }
 
+
+    /**
+     * Writes the stack pointer and every slot, used or not, so the size
+     * written only depends on the capacity.
+     */
+    public void writeTo(ByteBuffer out) {
+        out.put((byte) this.stack_pointer);
+        for (int i = 0; i < this.capacity; i++) {
+            out.putShort((short) this.data[i]);
+        }
+    }
+
+
+    public void readFrom(ByteBuffer in) {
+        this.stack_pointer = in.get();
+        for (int i = 0; i < this.capacity; i++) {
+            this.data[i] = in.getShort() & 0xFFFF;
+        }
+    }
+
+
+    /**
+     * Bytes written by writeTo for a stack of the given capacity.
+     */
+    public static int serializedSize(int capacity) {
+        return 1 + 2 * capacity;
+    }
+
 }
@@ -0,0 +1,32 @@
+package com.willtkelly;
+
+import java.io.PrintStream;
+
+/**
+ * Writes the framebuffer as text, one line per row, '#' for a lit pixel.
+ * XO-CHIP's other colours show as '+' (plane 1) and '*' (both planes).
+ */
+public class TextFrameSink implements FrameSink {
+
+    private final PrintStream out;
+
+    public TextFrameSink(PrintStream out) {
+        this.out = out;
+    }
+
+    private static final char[] PIXELS = { '.', '#', '+', '*' };
+
+    @Override
+    public void present(FrameBuffer frame) {
+        StringBuilder line = new StringBuilder();
+
+        for (int y = 0; y < frame.getHeight(); y++) {
+            line.setLength(0);
+            for (int x = 0; x < frame.getWidth(); x++) {
+                line.append(PIXELS[frame.getPixel(x, y)]);
+            }
+            this.out.println(line);
+        }
+        this.out.flush();
+    }
+}
@@ -0,0 +1,111 @@
+package com.willtkelly;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.graphics.GL20;
+import com.badlogic.gdx.graphics.Pixmap;
+import com.badlogic.gdx.graphics.Texture;
+import com.badlogic.gdx.graphics.g2d.SpriteBatch;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Keeps the framebuffer in a 128x64 texture, using its top left 64x32 in
+ * low resolution. Rows that changed are written into a Pixmap and uploaded
+ * with a single glTexSubImage2D covering them, then the used part of the
+ * texture is drawn as one quad scaled up with nearest filtering, so the
+ * draw cost no longer depends on how many pixels are lit or on the scale.
+ * Unchanged frames upload nothing.
+ */
+class TextureFrameRenderer implements FrameRenderer {
+
+    private final int scale;
+
+    private final Pixmap pixmap = new Pixmap(FrameBuffer.HIRES_WIDTH, FrameBuffer.HIRES_HEIGHT,
+            Pixmap.Format.RGBA8888);
+    private final Texture texture = new Texture(this.pixmap);
+    private final SpriteBatch batch = new SpriteBatch();
+    private int width = 0; // Of the last frame uploaded
+
+    TextureFrameRenderer(int scale) {
+        this.scale = scale;
+        this.texture.setFilter(Texture.TextureFilter.Nearest, Texture.TextureFilter.Nearest);
+    }
+
+    @Override
+    public void draw(FrameBuffer frame, long dirty_rows) {
+        // A resolution change means every row, at a new stride
+        if (frame.getWidth() != this.width) {
+            this.width = frame.getWidth();
+            dirty_rows = -1L;
+        }
+        if (dirty_rows != 0) {
+            upload(frame, dirty_rows);
+        }
+
+        // Either resolution fills the window
+        this.batch.begin();
+        this.batch.draw(this.texture, 0, 0,
+                FrameBuffer.LORES_WIDTH * this.scale, FrameBuffer.LORES_HEIGHT * this.scale,
+                0, 0, frame.getWidth(), frame.getHeight(), false, false);
+        this.batch.end();
+    }
+
+    private void upload(FrameBuffer frame, long dirty_rows) {
+        int width = frame.getWidth();
+        int first = Long.numberOfTrailingZeros(dirty_rows);
+        int last = Math.min(frame.getHeight() - 1, 63 - Long.numberOfLeadingZeros(dirty_rows));
+        if (first > last) {
+            return;
+        }
+
+        // Rows are packed at the frame's width, as glTexSubImage2D expects
+        ByteBuffer pixels = this.pixmap.getPixels();
+        for (int row = first; row <= last; row++) {
+            if ((dirty_rows & (1L << row)) != 0) {
+                row_to_pixels(frame, row, pixels, row * width * 4);
+            }
+        }
+
+        // One upload covering the first to last changed row
+        this.texture.bind();
+        pixels.position(first * width * 4);
+        Gdx.gl.glTexSubImage2D(GL20.GL_TEXTURE_2D, 0, 0, first, width, last - first + 1,
+                GL20.GL_RGBA, GL20.GL_UNSIGNED_BYTE, pixels);
+        pixels.position(0);
+    }
+
+    /**
+     * Writes the framebuffer into RGBA8888 pixels, top row first, in the
+     * PALETTE colours.
+     */
+    static void frame_to_pixels(FrameBuffer frame, ByteBuffer pixels) {
+        for (int row = 0; row < frame.getHeight(); row++) {
+            row_to_pixels(frame, row, pixels, row * frame.getWidth() * 4);
+        }
+    }
+
+    private static void row_to_pixels(FrameBuffer frame, int row, ByteBuffer pixels, int index) {
+        long[] plane0 = frame.getPlane(0);
+        long[] plane1 = frame.getPlane(1);
+
+        for (int w = 0; w < frame.getWordsPerRow(); w++) {
+            long low = plane0[row * frame.getWordsPerRow() + w];
+            long high = plane1[row * frame.getWordsPerRow() + w];
+            for (int bit = 63; bit >= 0; bit--) {
+                int color = PALETTE[(int) ((low >>> bit) & 1) | (int) ((high >>> bit) & 1) << 1];
+                pixels.put(index, (byte) (color >>> 24));
+                pixels.put(index + 1, (byte) (color >>> 16));
+                pixels.put(index + 2, (byte) (color >>> 8));
+                pixels.put(index + 3, (byte) color);
+                index += 4;
+            }
+        }
+    }
+
+    @Override
+    public void dispose() {
+        this.batch.dispose();
+        this.texture.dispose();
+        this.pixmap.dispose();
+    }
+}